@@ -0,0 +1,256 @@
+/*
+ * Copyright 2008 (c) ralfoide gmail com, 2008
+ * Project: Mandelbrot
+ * License: GPL version 3 or any later version
+ */
+
+package com.alfray.mandelbrot2;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parallel Buddhabrot density renderer.
+ * <p/>
+ * Worker threads sample random c values over the whole set, iterate z^2+c and,
+ * for the orbits that escape, accumulate every point of the orbit in a density
+ * histogram covering the block x_start+x_step / y_start+y_step.
+ * <p/>
+ * Each worker owns its histogram so that there is no contention when plotting;
+ * the only shared state is a sample counter bumped once per batch. The per-worker
+ * histograms are summed by {@link #merge(int[])}, which can be called at any time
+ * to get a progressive view (counts may be slightly behind while workers run)
+ * and gives the exact total once {@link #join()} returned.
+ * <p/>
+ * The set is symmetric around the real axis, so only c with y >= 0 are sampled
+ * and each orbit point is also plotted at its conjugate.
+ */
+public class Buddhabrot {
+
+    private static final String TAG = Buddhabrot.class.getSimpleName();
+
+    /** Number of samples a worker takes at once. */
+    private static final int BATCH = 1024;
+
+    // The sampled area covers the whole set (y >= 0 only, mirrored).
+    private static final double SAMPLE_X = -2;
+    private static final double SAMPLE_W = 2.5;
+    private static final double SAMPLE_H = 1.25;
+
+    private final double mXStart;
+    private final double mXStep;
+    private final double mYStart;
+    private final double mYStep;
+    private final int mSx;
+    private final int mSy;
+    private final int mMaxIter;
+    private final long mNumSamples;
+
+    private final Worker[] mWorkers;
+    private final AtomicLong mSampled = new AtomicLong();
+    private volatile boolean mStop;
+
+    /**
+     * Creates a renderer for a sx*sy block.
+     *
+     * @param max_iter Orbits that don't escape within max_iter are ignored.
+     * @param numSamples Total number of c values to sample.
+     * @param numThreads Number of worker threads, typically the number of cores.
+     */
+    public Buddhabrot(
+            double x_start, double x_step,
+            double y_start, double y_step,
+            int sx, int sy,
+            int max_iter,
+            long numSamples,
+            int numThreads) {
+        mXStart = x_start;
+        mXStep = x_step;
+        mYStart = y_start;
+        mYStep = y_step;
+        mSx = sx;
+        mSy = sy;
+        mMaxIter = max_iter;
+        mNumSamples = numSamples;
+
+        if (numThreads < 1) numThreads = 1;
+        mWorkers = new Worker[numThreads];
+        long seed = System.nanoTime();
+        for (int k = 0; k < numThreads; k++) {
+            mWorkers[k] = new Worker(k, seed + k);
+        }
+    }
+
+    /** Starts the worker threads. */
+    public void start() {
+        for (Worker w : mWorkers) {
+            w.start();
+        }
+    }
+
+    /** Asks the workers to stop and waits for them. */
+    public void stop() {
+        mStop = true;
+        join();
+    }
+
+    /** Waits for the workers to complete. */
+    public void join() {
+        for (Worker w : mWorkers) {
+            try {
+                w.join();
+            } catch (InterruptedException e) {
+                // pass
+            }
+        }
+    }
+
+    /** True once all the samples have been taken or stop() was called. */
+    public boolean isDone() {
+        for (Worker w : mWorkers) {
+            if (w.isAlive()) return false;
+        }
+        return true;
+    }
+
+    /** Number of samples taken so far. */
+    public long getNumSampled() {
+        long n = mSampled.get();
+        return n < mNumSamples ? n : mNumSamples;
+    }
+
+    public long getNumSamples() {
+        return mNumSamples;
+    }
+
+    public int getNumThreads() {
+        return mWorkers.length;
+    }
+
+    /**
+     * Sums the per-worker histograms in dest, which must hold sx*sy ints.
+     * Returns the largest density.
+     */
+    public int merge(int[] dest) {
+        final int n = mSx * mSy;
+        System.arraycopy(mWorkers[0].mHistogram, 0, dest, 0, n);
+        for (int w = 1; w < mWorkers.length; w++) {
+            int[] h = mWorkers[w].mHistogram;
+            for (int k = 0; k < n; k++) {
+                dest[k] += h[k];
+            }
+        }
+        int max = 0;
+        for (int k = 0; k < n; k++) {
+            if (dest[k] > max) max = dest[k];
+        }
+        return max;
+    }
+
+    /**
+     * Converts n densities to ARGB colors, using a square-root scale of the
+     * max density so that the faint orbits stay visible.
+     */
+    public static void toColors(int[] density, int n, int max, int[] colors) {
+        final double scale = max > 0 ? 255 / Math.sqrt(max) : 0;
+        for (int k = 0; k < n; k++) {
+            int v = (int) (Math.sqrt(density[k]) * scale);
+            if (v > 255) v = 255;
+            colors[k] = 0xFF000000 | (v << 16) | (v << 8) | (0x20 + (v * 223 >> 8));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    private class Worker extends Thread {
+
+        private final int[] mHistogram;
+        private final double[] mOrbitX;
+        private final double[] mOrbitY;
+        private final Random mRandom;
+
+        public Worker(int index, long seed) {
+            super(TAG + index);
+            setPriority(Thread.NORM_PRIORITY - 1);
+            mHistogram = new int[mSx * mSy];
+            mOrbitX = new double[mMaxIter];
+            mOrbitY = new double[mMaxIter];
+            mRandom = new Random(seed);
+        }
+
+        @Override
+        public void run() {
+            while (!mStop) {
+                long first = mSampled.getAndAdd(BATCH);
+                if (first >= mNumSamples) break;
+                long n = mNumSamples - first;
+                sample(n < BATCH ? (int) n : BATCH);
+            }
+        }
+
+        private void sample(int count) {
+            final int max_iter = mMaxIter;
+            final double[] ox = mOrbitX;
+            final double[] oy = mOrbitY;
+            final Random rnd = mRandom;
+
+            for (int s = 0; s < count && !mStop; s++) {
+                final double cx = SAMPLE_X + rnd.nextDouble() * SAMPLE_W;
+                final double cy = rnd.nextDouble() * SAMPLE_H;
+
+                // skip the main cardioid and the period-2 bulb, they never escape
+                final double xq = cx - 0.25;
+                final double cy2 = cy * cy;
+                final double q = xq * xq + cy2;
+                if (q * (q + xq) <= 0.25 * cy2) continue;
+                if ((cx + 1) * (cx + 1) + cy2 <= 0.0625) continue;
+
+                double x = 0;
+                double y = 0;
+                double x2 = 0;
+                double y2 = 0;
+                int iter = 0;
+                while (x2 + y2 < 4 && iter < max_iter) {
+                    double xt = x2 - y2 + cx;
+                    y = 2 * x * y + cy;
+                    x = xt;
+                    x2 = xt * xt;
+                    y2 = y * y;
+                    ox[iter] = x;
+                    oy[iter] = y;
+                    ++iter;
+                }
+
+                if (iter < max_iter) {
+                    plot(iter);
+                }
+            }
+        }
+
+        /** Plots the first n points of the orbit and their conjugates. */
+        private void plot(int n) {
+            final int[] hist = mHistogram;
+            final int sx = mSx;
+            final int sy = mSy;
+            final double x0 = mXStart;
+            final double y0 = mYStart;
+            final double inv_x = 1 / mXStep;
+            final double inv_y = 1 / mYStep;
+
+            for (int k = 0; k < n; k++) {
+                double fx = (mOrbitX[k] - x0) * inv_x;
+                if (fx < 0 || fx >= sx) continue;
+                int px = (int) fx;
+
+                double fy = (mOrbitY[k] - y0) * inv_y;
+                if (fy >= 0 && fy < sy) {
+                    hist[(int) fy * sx + px]++;
+                }
+                fy = (-mOrbitY[k] - y0) * inv_y;
+                if (fy >= 0 && fy < sy) {
+                    hist[(int) fy * sx + px]++;
+                }
+            }
+        }
+    }
+}
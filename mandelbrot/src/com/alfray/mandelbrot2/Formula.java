@@ -0,0 +1,42 @@
+/*
+ * Copyright 2008 (c) ralfoide gmail com, 2008
+ * Project: Mandelbrot
+ * License: GPL version 3 or any later version
+ */
+
+package com.alfray.mandelbrot2;
+
+/**
+ * A fractal formula z => f(z, c) rendered with c = pixel and z0 = 0.
+ * <p/>
+ * Implementations ship their own specialized kernels: a formula is called once
+ * per block (i.e. per tile) and runs its whole escape loop inline, so the inner
+ * loop never goes through a virtual call or a generic complex type.
+ * <p/>
+ * Implementations are in {@link Formulas}.
+ */
+public interface Formula {
+
+    /** The fractal has no symmetry. */
+    public static final int SYMMETRY_NONE = 0;
+    /** The fractal is symmetric around the real axis. */
+    public static final int SYMMETRY_REAL_AXIS = 1;
+
+    /** Unique name of the formula, as used in the prefs. */
+    public String getName();
+
+    /** One of {@link #SYMMETRY_NONE} or {@link #SYMMETRY_REAL_AXIS}. */
+    public int getSymmetry();
+
+    /**
+     * Computes a block using x_start+x_step / y_start+y_step.
+     * Same conventions as {@link JavaMandel#mandelbrot2}: returns SX*SY int
+     * ranging [0..maxIter] and aborts if maxIter <= 0.
+     */
+    public void compute(
+            double x_start, double x_step,
+            double y_start, double y_step,
+            int sx, int sy,
+            int max_iter,
+            int size, int[] result);
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2008 (c) ralfoide gmail com, 2008
+ * Project: Mandelbrot
+ * License: GPL version 3 or any later version
+ */
+
+package com.alfray.mandelbrot2;
+
+/**
+ * The available {@link Formula} implementations.
+ * <p/>
+ * Each one is a final class with its own escape loop written out for its
+ * formula. The z^2+c formula just uses the classic {@link JavaMandel} kernel.
+ */
+public class Formulas {
+
+    /** The classic Mandelbrot set, z^2+c. */
+    public static final Formula MANDELBROT = new Mandelbrot();
+    /** Multibrot set z^3+c. */
+    public static final Formula MULTIBROT3 = new Multibrot(3);
+    /** Multibrot set z^4+c. */
+    public static final Formula MULTIBROT4 = new Multibrot(4);
+    /** Multibrot set z^5+c. */
+    public static final Formula MULTIBROT5 = new Multibrot(5);
+    /** Burning Ship, (|x| + i|y|)^2+c. */
+    public static final Formula BURNING_SHIP = new BurningShip();
+    /** Tricorn, conj(z)^2+c. */
+    public static final Formula TRICORN = new Tricorn();
+
+    private static final Formula[] sFormulas = {
+        MANDELBROT, MULTIBROT3, MULTIBROT4, MULTIBROT5, BURNING_SHIP, TRICORN
+    };
+
+    private Formulas() {
+    }
+
+    /** Returns the formula with that name or {@link #MANDELBROT} if there's none. */
+    public static Formula get(String name) {
+        for (Formula f : sFormulas) {
+            if (f.getName().equals(name)) return f;
+        }
+        return MANDELBROT;
+    }
+
+    // ------------------------------------------------------------------------
+
+    private static final class Mandelbrot implements Formula {
+
+        public String getName() {
+            return "z2";
+        }
+
+        public int getSymmetry() {
+            return SYMMETRY_REAL_AXIS;
+        }
+
+        public void compute(
+                double x_start, double x_step,
+                double y_start, double y_step,
+                int sx, int sy,
+                int max_iter,
+                int size, int[] result) {
+            JavaMandel.mandelbrot2_java(x_start, x_step, y_start, y_step, sx, sy, max_iter, size, result);
+        }
+
+        @Override
+        public String toString() {
+            return "z^2+c";
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Multibrot sets z^n+c, n >= 3.
+     * The power is only checked once per block to pick the kernel: n=3 and n=4
+     * have their expanded polynomial, other powers multiply z n-1 times.
+     */
+    private static final class Multibrot implements Formula {
+
+        private final int mPower;
+
+        public Multibrot(int power) {
+            mPower = power;
+        }
+
+        public String getName() {
+            return "z" + mPower;
+        }
+
+        public int getSymmetry() {
+            return SYMMETRY_REAL_AXIS;
+        }
+
+        public void compute(
+                double x_start, double x_step,
+                double y_start, double y_step,
+                int sx, int sy,
+                int max_iter,
+                int size, int[] result) {
+            if (max_iter <= 0) return;
+            switch (mPower) {
+            case 3:
+                multibrot3(x_start, x_step, y_start, y_step, sx, sy, max_iter, result);
+                break;
+            case 4:
+                multibrot4(x_start, x_step, y_start, y_step, sx, sy, max_iter, result);
+                break;
+            default:
+                multibrotN(x_start, x_step, y_start, y_step, sx, sy, max_iter, mPower, result);
+                break;
+            }
+        }
+
+        private static void multibrot3(
+                double x_start, double x_step,
+                double y_start, double y_step,
+                int sx, int sy,
+                int max_iter,
+                int[] result) {
+            double x_begin = x_start;
+            for(int j = 0, k = 0; j < sy; ++j, y_start += y_step) {
+                x_start = x_begin;
+                for(int i = 0; i < sx; ++i, ++k, x_start += x_step) {
+                    double x = x_start;
+                    double y = y_start;
+                    double x2 = x * x;
+                    double y2 = y * y;
+                    int iter = 0;
+                    while (x2 + y2 < 4 && iter < max_iter) {
+                        // z^3 = x^3 - 3xy^2 + i(3x^2y - y^3)
+                        double xt = x * (x2 - 3 * y2) + x_start;
+                        y = y * (3 * x2 - y2) + y_start;
+                        x = xt;
+                        x2 = xt * xt;
+                        y2 = y * y;
+                        ++iter;
+                    }
+
+                    result[k] = iter;
+                } // i
+            } // j
+        }
+
+        private static void multibrot4(
+                double x_start, double x_step,
+                double y_start, double y_step,
+                int sx, int sy,
+                int max_iter,
+                int[] result) {
+            double x_begin = x_start;
+            for(int j = 0, k = 0; j < sy; ++j, y_start += y_step) {
+                x_start = x_begin;
+                for(int i = 0; i < sx; ++i, ++k, x_start += x_step) {
+                    double x = x_start;
+                    double y = y_start;
+                    double x2 = x * x;
+                    double y2 = y * y;
+                    int iter = 0;
+                    while (x2 + y2 < 4 && iter < max_iter) {
+                        // z^4 = (z^2)^2 = (x2-y2)^2 - 4x2y2 + i.4xy(x2-y2)
+                        double d = x2 - y2;
+                        double xt = d * d - 4 * x2 * y2 + x_start;
+                        y = 4 * x * y * d + y_start;
+                        x = xt;
+                        x2 = xt * xt;
+                        y2 = y * y;
+                        ++iter;
+                    }
+
+                    result[k] = iter;
+                } // i
+            } // j
+        }
+
+        private static void multibrotN(
+                double x_start, double x_step,
+                double y_start, double y_step,
+                int sx, int sy,
+                int max_iter,
+                final int power,
+                int[] result) {
+            double x_begin = x_start;
+            for(int j = 0, k = 0; j < sy; ++j, y_start += y_step) {
+                x_start = x_begin;
+                for(int i = 0; i < sx; ++i, ++k, x_start += x_step) {
+                    double x = x_start;
+                    double y = y_start;
+                    int iter = 0;
+                    while (x * x + y * y < 4 && iter < max_iter) {
+                        double zx = x;
+                        double zy = y;
+                        for (int p = 1; p < power; ++p) {
+                            double t = zx * x - zy * y;
+                            zy = zx * y + zy * x;
+                            zx = t;
+                        }
+                        x = zx + x_start;
+                        y = zy + y_start;
+                        ++iter;
+                    }
+
+                    result[k] = iter;
+                } // i
+            } // j
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof Multibrot) && ((Multibrot) o).mPower == mPower;
+        }
+
+        @Override
+        public int hashCode() {
+            return mPower;
+        }
+
+        @Override
+        public String toString() {
+            return "z^" + mPower + "+c";
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /** Burning Ship: (|x| + i|y|)^2+c. It has no symmetry. */
+    private static final class BurningShip implements Formula {
+
+        public String getName() {
+            return "burning_ship";
+        }
+
+        public int getSymmetry() {
+            return SYMMETRY_NONE;
+        }
+
+        public void compute(
+                double x_start, double x_step,
+                double y_start, double y_step,
+                int sx, int sy,
+                int max_iter,
+                int size, int[] result) {
+            if (max_iter <= 0) return;
+            double x_begin = x_start;
+            for(int j = 0, k = 0; j < sy; ++j, y_start += y_step) {
+                x_start = x_begin;
+                for(int i = 0; i < sx; ++i, ++k, x_start += x_step) {
+                    double x = x_start;
+                    double y = y_start;
+                    double x2 = x * x;
+                    double y2 = y * y;
+                    int iter = 0;
+                    while (x2 + y2 < 4 && iter < max_iter) {
+                        double xt = x2 - y2 + x_start;
+                        y = 2 * Math.abs(x * y) + y_start;
+                        x = xt;
+                        x2 = xt * xt;
+                        y2 = y * y;
+                        ++iter;
+                    }
+
+                    result[k] = iter;
+                } // i
+            } // j
+        }
+
+        @Override
+        public String toString() {
+            return "Burning Ship";
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /** Tricorn (Mandelbar): conj(z)^2+c. */
+    private static final class Tricorn implements Formula {
+
+        public String getName() {
+            return "tricorn";
+        }
+
+        public int getSymmetry() {
+            return SYMMETRY_REAL_AXIS;
+        }
+
+        public void compute(
+                double x_start, double x_step,
+                double y_start, double y_step,
+                int sx, int sy,
+                int max_iter,
+                int size, int[] result) {
+            if (max_iter <= 0) return;
+            double x_begin = x_start;
+            for(int j = 0, k = 0; j < sy; ++j, y_start += y_step) {
+                x_start = x_begin;
+                for(int i = 0; i < sx; ++i, ++k, x_start += x_step) {
+                    double x = x_start;
+                    double y = y_start;
+                    double x2 = x * x;
+                    double y2 = y * y;
+                    int iter = 0;
+                    while (x2 + y2 < 4 && iter < max_iter) {
+                        double xt = x2 - y2 + x_start;
+                        y = -2 * x * y + y_start;
+                        x = xt;
+                        x2 = xt * xt;
+                        y2 = y * y;
+                        ++iter;
+                    }
+
+                    result[k] = iter;
+                } // i
+            } // j
+        }
+
+        @Override
+        public String toString() {
+            return "Tricorn";
+        }
+    }
+}
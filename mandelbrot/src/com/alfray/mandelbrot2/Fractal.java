@@ -0,0 +1,139 @@
+/*
+ * Copyright 2008 (c) ralfoide gmail com, 2008
+ * Project: Mandelbrot
+ * License: GPL version 3 or any later version
+ */
+
+package com.alfray.mandelbrot2;
+
+/**
+ * Describes which fractal a tile renders: the Mandelbrot set or the Julia
+ * set for a given complex constant.
+ * <p/>
+ * The Mandelbrot type can use any {@link Formula}, the classic z^2+c one being
+ * rendered by the optimized {@link JavaMandel} paths. Julia sets are z^2+c only.
+ * <p/>
+ * This is part of the tile identity: TileContext keeps a separate tile cache
+ * per fractal, so instances are immutable and usable as hash keys.
+ */
+public class Fractal {
+
+    public static final int MANDELBROT = 0;
+    public static final int JULIA = 1;
+    public static final int BUDDHABROT = 2;
+
+    /** The default Mandelbrot fractal. */
+    public static final Fractal MANDELBROT_SET =
+        new Fractal(MANDELBROT, 0, 0, Formulas.MANDELBROT);
+
+    /** The Buddhabrot density of the Mandelbrot set. */
+    public static final Fractal BUDDHABROT_SET =
+        new Fractal(BUDDHABROT, 0, 0, Formulas.MANDELBROT);
+
+    private final int mType;
+    private final double mCx;
+    private final double mCy;
+    private final Formula mFormula;
+
+    private Fractal(int type, double cx, double cy, Formula formula) {
+        mType = type;
+        mCx = cx;
+        mCy = cy;
+        mFormula = formula;
+    }
+
+    /** Returns the Mandelbrot-type fractal of that formula. */
+    public static Fractal mandelbrot(Formula formula) {
+        if (formula == Formulas.MANDELBROT) return MANDELBROT_SET;
+        return new Fractal(MANDELBROT, 0, 0, formula);
+    }
+
+    /** Creates the Julia set fractal for the constant c = cx + i.cy */
+    public static Fractal julia(double cx, double cy) {
+        return new Fractal(JULIA, cx, cy, Formulas.MANDELBROT);
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public boolean isJulia() {
+        return mType == JULIA;
+    }
+
+    /**
+     * True for the Buddhabrot: its tiles are not computed one by one by the
+     * TileThread but all at once by a density renderer.
+     */
+    public boolean isBuddhabrot() {
+        return mType == BUDDHABROT;
+    }
+
+    public Formula getFormula() {
+        return mFormula;
+    }
+
+    /**
+     * True if tiles are computed by the formula kernel, false if they use
+     * the classic z^2+c Mandelbrot or Julia paths.
+     */
+    public boolean usesFormula() {
+        return mType == MANDELBROT && mFormula != Formulas.MANDELBROT;
+    }
+
+    /** Real part of the Julia constant. 0 for the Mandelbrot set. */
+    public double getCx() {
+        return mCx;
+    }
+
+    /** Imaginary part of the Julia constant. 0 for the Mandelbrot set. */
+    public double getCy() {
+        return mCy;
+    }
+
+    /**
+     * True if the fractal is symmetric around the origin, z => -z.
+     * That's the case of all Julia sets of z^2+c.
+     * Otherwise the fractal is symmetric around the real axis (Mandelbrot).
+     */
+    public boolean hasPointSymmetry() {
+        return mType == JULIA;
+    }
+
+    /** True if tiles can be computed from their mirror tile. */
+    public boolean hasMirror() {
+        if (mType == BUDDHABROT) return false;
+        return mType == JULIA || mFormula.getSymmetry() == Formula.SYMMETRY_REAL_AXIS;
+    }
+
+    @Override
+    public int hashCode() {
+        long a = Double.doubleToLongBits(mCx);
+        long b = Double.doubleToLongBits(mCy);
+        return mType ^ (int)(a ^ (a >>> 32)) * 31 ^ (int)(b ^ (b >>> 32)) ^ mFormula.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Fractal)) return false;
+        Fractal f = (Fractal) o;
+        return f.mType == mType &&
+            f.mFormula.equals(mFormula) &&
+            Double.doubleToLongBits(f.mCx) == Double.doubleToLongBits(mCx) &&
+            Double.doubleToLongBits(f.mCy) == Double.doubleToLongBits(mCy);
+    }
+
+    @Override
+    public String toString() {
+        if (mType == JULIA) {
+            return String.format("Julia(%.5f, %.5f)", mCx, mCy);
+        }
+        if (mType == BUDDHABROT) {
+            return "Buddhabrot";
+        }
+        if (mFormula != Formulas.MANDELBROT) {
+            return mFormula.toString();
+        }
+        return "Mandelbrot";
+    }
+}
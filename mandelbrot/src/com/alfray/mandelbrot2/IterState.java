@@ -0,0 +1,153 @@
+/*
+ * Copyright 2008 (c) ralfoide gmail com, 2008
+ * Project: Mandelbrot
+ * License: GPL version 3 or any later version
+ */
+
+package com.alfray.mandelbrot2;
+
+/**
+ * Per-pixel iteration state of a computed block.
+ * <p/>
+ * Holds the iteration count of every pixel plus the (x, y) state of the
+ * pixels that did not escape at max_iter. This lets
+ * {@link JavaMandel#mandelbrot2_resume(int, IterState)} continue only those
+ * pixels when max_iter is raised, instead of restarting from z=0.
+ * <p/>
+ * Non-escaped pixels are stored compactly (index + x + y), so a block that
+ * is mostly outside the set costs little more than its iteration counts.
+ */
+public class IterState {
+
+    private double mXStart;
+    private double mXStep;
+    private double mYStart;
+    private double mYStep;
+    private int mSx;
+    private int mSy;
+    private int mMaxIter;
+
+    private int[] mIters;
+
+    private int mNumActive;
+    private int[] mActiveIndex;
+    private double[] mActiveX;
+    private double[] mActiveY;
+
+    public IterState() {
+    }
+
+    /** Prepares the state for a new block. Keeps the arrays if large enough. */
+    public void reset(
+            double x_start, double x_step,
+            double y_start, double y_step,
+            int sx, int sy,
+            int max_iter) {
+        mXStart = x_start;
+        mXStep = x_step;
+        mYStart = y_start;
+        mYStep = y_step;
+        mSx = sx;
+        mSy = sy;
+        mMaxIter = max_iter;
+        mNumActive = 0;
+
+        int n = sx * sy;
+        if (mIters == null || mIters.length != n) {
+            mIters = new int[n];
+        }
+    }
+
+    public double getXStart() {
+        return mXStart;
+    }
+
+    public double getXStep() {
+        return mXStep;
+    }
+
+    public double getYStart() {
+        return mYStart;
+    }
+
+    public double getYStep() {
+        return mYStep;
+    }
+
+    public int getSx() {
+        return mSx;
+    }
+
+    public int getSy() {
+        return mSy;
+    }
+
+    public int getMaxIter() {
+        return mMaxIter;
+    }
+
+    /** Iteration counts, sx*sy ints ranging [0..max_iter]. */
+    public int[] getIters() {
+        return mIters;
+    }
+
+    /** Number of pixels that had not escaped at max_iter. */
+    public int getNumActive() {
+        return mNumActive;
+    }
+
+    /**
+     * Approximate memory used by this state, in bytes.
+     * Charged against the tile memory budget, see Tile.getMemorySize().
+     */
+    public int getMemorySize() {
+        int n = mIters == null ? 0 : mIters.length * 4;
+        if (mActiveIndex != null) n += mActiveIndex.length * (4 + 8 + 8);
+        return n;
+    }
+
+    // ---- package-private accessors for JavaMandel ----
+
+    void setMaxIter(int max_iter) {
+        mMaxIter = max_iter;
+    }
+
+    /** Records the (x, y) state of pixel k which did not escape at max_iter. */
+    void addActive(int k, double x, double y) {
+        int n = mNumActive;
+        if (mActiveIndex == null || n == mActiveIndex.length) {
+            int len = mActiveIndex == null ? 256 : mActiveIndex.length * 2;
+            int[] index = new int[len];
+            double[] ax = new double[len];
+            double[] ay = new double[len];
+            if (n > 0) {
+                System.arraycopy(mActiveIndex, 0, index, 0, n);
+                System.arraycopy(mActiveX, 0, ax, 0, n);
+                System.arraycopy(mActiveY, 0, ay, 0, n);
+            }
+            mActiveIndex = index;
+            mActiveX = ax;
+            mActiveY = ay;
+        }
+        mActiveIndex[n] = k;
+        mActiveX[n] = x;
+        mActiveY[n] = y;
+        mNumActive = n + 1;
+    }
+
+    void setNumActive(int numActive) {
+        mNumActive = numActive;
+    }
+
+    int[] getActiveIndex() {
+        return mActiveIndex;
+    }
+
+    double[] getActiveX() {
+        return mActiveX;
+    }
+
+    double[] getActiveY() {
+        return mActiveY;
+    }
+}
@@ -18,6 +18,13 @@ public class JavaMandel {
     private static String TAG = JavaMandel.class.getSimpleName();
     private static boolean mHasRs = false;
     private static boolean mUseRs = true;
+    private static boolean mUseParallel = Mandel_Java.isUseful();
+    private static boolean mKeepIterState = false;
+    private static boolean mSmoothColors = false;
+    private static boolean mDistanceEstimation = false;
+    private static boolean mSolidGuessing = false;
+    private static boolean mInteriorTiles = false;
+    private static Formula mFormula = Formulas.MANDELBROT;
 
     public synchronized static void init(Context context) {
         try {
@@ -33,6 +40,7 @@ public class JavaMandel {
     }
 
     public static void dispose() {
+        Mandel_Java.dispose();
     }
 
     public static boolean hasRs() {
@@ -43,9 +51,88 @@ public class JavaMandel {
         return mHasRs && mUseRs;
     }
 
+    /**
+     * True if {@link #mandelbrot2} uses the multi-core {@link Mandel_Java} backend
+     * when RenderScript isn't used.
+     */
+    public static boolean useParallel() {
+        return mUseParallel && Mandel_Java.isUseful();
+    }
+
+    /**
+     * Enables the multi-core java backend. Mostly useful when running without
+     * an Android context (i.e. without prefs).
+     */
+    public static void setUseParallel(boolean useParallel) {
+        mUseParallel = useParallel;
+    }
+
+    /**
+     * True if tiles should keep their per-pixel {@link IterState} so that
+     * a higher max_iter resumes the non-escaped pixels instead of restarting.
+     */
+    public static boolean keepIterState() {
+        return mKeepIterState;
+    }
+
+    /** True if tiles should be colored using the smooth (fractional) iteration count. */
+    public static boolean smoothColors() {
+        return mSmoothColors;
+    }
+
+    /** True if tiles should use the distance estimation renderer. */
+    public static boolean distanceEstimation() {
+        return mDistanceEstimation;
+    }
+
+    /** True if tiles should use the solid-guessing renderer. */
+    public static boolean solidGuessing() {
+        return mSolidGuessing;
+    }
+
+    /**
+     * True if tiles surrounded by interior pixels of their neighbours should be
+     * filled without being computed.
+     */
+    public static boolean interiorTiles() {
+        return mInteriorTiles;
+    }
+
+    /** The formula selected in the prefs for the Mandelbrot-type fractals. */
+    public static Formula formula() {
+        return mFormula;
+    }
+
     public static void prefsChanged(Context context) {
         BasePrefsValues pv = new BasePrefsValues(context.getApplicationContext());
         mUseRs = pv.useRenderScript();
+        mUseParallel = pv.useParallel();
+        mKeepIterState = pv.keepIterState();
+        mSmoothColors = pv.smoothColors();
+        mDistanceEstimation = pv.distanceEstimation();
+        mSolidGuessing = pv.solidGuessing();
+
+        // Tiles use a single renderer. PrefsActivity only lets one be on, but
+        // prefs saved before that may have several: keep the one Tile.compute()
+        // picks first and say so.
+        boolean used = false;
+        if (mKeepIterState) used = true;
+        if (mSmoothColors) {
+            if (used) Log.w(TAG, "smooth_colors ignored, another renderer is on");
+            mSmoothColors = !used;
+            used = true;
+        }
+        if (mDistanceEstimation) {
+            if (used) Log.w(TAG, "distance_estimation ignored, another renderer is on");
+            mDistanceEstimation = !used;
+            used = true;
+        }
+        if (mSolidGuessing) {
+            if (used) Log.w(TAG, "solid_guessing ignored, another renderer is on");
+            mSolidGuessing = !used;
+        }
+        mInteriorTiles = pv.interiorTiles();
+        mFormula = Formulas.get(pv.formula());
     }
 
     // ------------------------------------------------------------------------
@@ -57,6 +144,9 @@ public class JavaMandel {
      * maxIter is an int, returns SX*SY int ranging [1..maxIter].
      * Uses the "classic" double version, no fancy optims.
      * <p/>
+     * Uses RenderScript if available and enabled, otherwise the multi-core
+     * {@link Mandel_Java} backend if enabled, otherwise the single-threaded java.
+     * <p/>
      * Aborts if maxIter or sx or sy <= 0.
      */
     public static void mandelbrot2(
@@ -68,6 +158,8 @@ public class JavaMandel {
 
         if (mHasRs && mUseRs) {
             Mandel_RS.mandelbrot2_RS(x_start, x_step, y_start, y_step, sx, sy, max_iter, size, result);
+        } else if (useParallel()) {
+            Mandel_Java.mandelbrot2_parallel(x_start, x_step, y_start, y_step, sx, sy, max_iter, size, result);
         } else {
             mandelbrot2_java(x_start, x_step, y_start, y_step, sx, sy, max_iter, size, result);
         }
@@ -104,6 +196,779 @@ public class JavaMandel {
         } // j
     }
 
+    private static final double INV_LOG2 = 1 / Math.log(2);
+    /** |z|^2 the smooth count is evaluated at, large enough for it to be continuous. */
+    private static final double SMOOTH_BAILOUT2 = 256;
+
+    /**
+     * Same as {@link #mandelbrot2_java} and also writes the smooth (continuous)
+     * iteration count of each pixel in the smooth float buffer.
+     * <p/>
+     * The smooth count is derived from |z| in the same pass:
+     * n + 1 - log2(log |z|), clamped to [0..max_iter[ for escaped pixels,
+     * and exactly max_iter for pixels that did not escape. That formula is
+     * only continuous for a large |z|, so escaped pixels are iterated a few
+     * more times, up to |z|^2 >= SMOOTH_BAILOUT2, n counting those too. The
+     * integer counts in result still use the usual |z| < 2 bailout.
+     * The smooth buffer must hold at least sx*sy floats and can be reused
+     * between calls.
+     */
+    public static void mandelbrot2_smooth(
+            double x_start, double x_step,
+            double y_start, double y_step,
+            int sx, int sy,
+            int max_iter,
+            int size, int[] result, float[] smooth) {
+        if (max_iter <= 0) return;
+        final float max_smooth = max_iter - 0.001f;
+        double x_begin = x_start;
+        for(int j = 0, k = 0; j < sy; ++j, y_start += y_step) {
+            x_start = x_begin;
+            for(int i = 0; i < sx; ++i, ++k, x_start += x_step) {
+                double x = x_start;
+                double y = y_start;
+                double x2 = x * x;
+                double y2 = y * y;
+                int iter = 0;
+                while (x2 + y2 < 4 && iter < max_iter) {
+                    double xt = x2 - y2 + x_start;
+                    y = 2 * x * y + y_start;
+                    x = xt;
+                    x2 = xt * xt;
+                    y2 = y * y;
+                    ++iter;
+                }
+
+                result[k] = iter;
+                if (iter < max_iter) {
+                    // a few more iterations, |z| about squares each time
+                    int n = iter;
+                    while (x2 + y2 < SMOOTH_BAILOUT2 && n < iter + 8) {
+                        double xt = x2 - y2 + x_start;
+                        y = 2 * x * y + y_start;
+                        x = xt;
+                        x2 = xt * xt;
+                        y2 = y * y;
+                        ++n;
+                    }
+                    // log |z| = log(x2 + y2) / 2
+                    float nu = (float) (n + 1 - Math.log(0.5 * Math.log(x2 + y2)) * INV_LOG2);
+                    smooth[k] = nu < 0 ? 0 : (nu > max_smooth ? max_smooth : nu);
+                } else {
+                    smooth[k] = max_iter;
+                }
+            } // i
+        } // j
+    }
+
+    /** Number of iterations run between two escape checks by the unrolled kernels. */
+    public static final int UNROLL = 4;
+
+    /**
+     * Same as {@link #mandelbrot2_java} with an unrolled loop that only checks for
+     * escape every {@link #UNROLL} iterations.
+     * <p/>
+     * Once the escape is detected at the end of a block, the kernel rolls back to
+     * the state saved at the start of the block and finishes one iteration at a
+     * time, so the result is identical to mandelbrot2_java.
+     * <p/>
+     * This is safe because blocks only start when |z| < 2, which implies |c| < 2
+     * for the first block, and once |z| >= 2 with |c| <= 2 it never gets back
+     * under 2. Values may overflow to infinity or NaN after the escape, both of
+     * which also fail the x2 + y2 < 4 check.
+     */
+    protected static void mandelbrot2_unroll_java(
+            double x_start, double x_step,
+            double y_start, double y_step,
+            int sx, int sy,
+            int max_iter,
+            int size, int[] result) {
+        if (max_iter <= 0) return;
+        final int max_block = max_iter - UNROLL;
+        double x_begin = x_start;
+        for(int j = 0, k = 0; j < sy; ++j, y_start += y_step) {
+            x_start = x_begin;
+            for(int i = 0; i < sx; ++i, ++k, x_start += x_step) {
+                double x = x_start;
+                double y = y_start;
+                double x2 = x * x;
+                double y2 = y * y;
+                int iter = 0;
+
+                while (x2 + y2 < 4 && iter <= max_block) {
+                    final double x_saved = x;
+                    final double y_saved = y;
+                    double xt;
+
+                    xt = x2 - y2 + x_start;
+                    y = 2 * x * y + y_start;
+                    x = xt;
+                    x2 = xt * xt;
+                    y2 = y * y;
+
+                    xt = x2 - y2 + x_start;
+                    y = 2 * x * y + y_start;
+                    x = xt;
+                    x2 = xt * xt;
+                    y2 = y * y;
+
+                    xt = x2 - y2 + x_start;
+                    y = 2 * x * y + y_start;
+                    x = xt;
+                    x2 = xt * xt;
+                    y2 = y * y;
+
+                    xt = x2 - y2 + x_start;
+                    y = 2 * x * y + y_start;
+                    x = xt;
+                    x2 = xt * xt;
+                    y2 = y * y;
+
+                    iter += UNROLL;
+                    if (!(x2 + y2 < 4)) {
+                        // escaped somewhere in this block, roll back
+                        x = x_saved;
+                        y = y_saved;
+                        x2 = x * x;
+                        y2 = y * y;
+                        iter -= UNROLL;
+                        break;
+                    }
+                }
+
+                // finish one iteration at a time
+                while (x2 + y2 < 4 && iter < max_iter) {
+                    double xt = x2 - y2 + x_start;
+                    y = 2 * x * y + y_start;
+                    x = xt;
+                    x2 = xt * xt;
+                    y2 = y * y;
+                    ++iter;
+                }
+
+                result[k] = iter;
+            } // i
+        } // j
+    }
+
+    /**
+     * Java rendering of a single line using the classic double algorithm.
+     * Writes sx ints in result starting at offset, identical to what
+     * {@link #mandelbrot2_java} computes for a line at the same y.
+     */
+    public static void mandelbrot2_line(
+            double x_start, double x_step,
+            double y_start,
+            int sx,
+            int max_iter,
+            int[] result, int offset) {
+        if (max_iter <= 0) return;
+        for(int i = 0, k = offset; i < sx; ++i, ++k, x_start += x_step) {
+            double x = x_start;
+            double y = y_start;
+            double x2 = x * x;
+            double y2 = y * y;
+            int iter = 0;
+            while (x2 + y2 < 4 && iter < max_iter) {
+                double xt = x2 - y2 + x_start;
+                y = 2 * x * y + y_start;
+                x = xt;
+                x2 = xt * xt;
+                y2 = y * y;
+                ++iter;
+            }
+
+            result[k] = iter;
+        } // i
+    }
+
+    /** Largest cycle period looked for by the interior distance estimation. */
+    private static final int DE_MAX_PERIOD = 256;
+
+    /**
+     * Java renderer using distance estimation to skip whole pixel neighbourhoods.
+     * <p/>
+     * Each iterated pixel also tracks the derivatives of z to get a bound on its
+     * distance to the set boundary, and all the pixels not computed yet within that
+     * guaranteed disk are filled without being iterated:
+     * <ul>
+     * <li> Escaped pixels use the exterior estimate 2|z|log|z|/|dz/dc| (after a few
+     *      extra iterations past the bailout to make it accurate). The disk is known
+     *      to be outside the set but the iteration count is not constant in it, so
+     *      it is further shrunk to where the smooth count should stay within the
+     *      same integer and filled with the count of the pixel. This is still an
+     *      approximation.
+     * <li> Pixels that did not escape look for an attracting cycle and use the
+     *      interior estimate. The disk is inside the set so filling it with max_iter
+     *      is exact.
+     * </ul>
+     * Both estimates are within a factor of 4 of the real distance so a quarter of
+     * them is used as the guaranteed radius.
+     * <p/>
+     * If stats is not null, stats[0] receives the number of iterated pixels and
+     * stats[1] the number of skipped (filled) pixels.
+     */
+    public static void mandelbrot2_distance(
+            double x_start, double x_step,
+            double y_start, double y_step,
+            int sx, int sy,
+            int max_iter,
+            int size, int[] result, int[] stats) {
+        if (max_iter <= 0) return;
+        final int n = sx * sy;
+        for (int k = 0; k < n; ++k) result[k] = -1;
+
+        // accumulate c exactly like mandelbrot2_java does
+        double[] cxs = new double[sx];
+        double[] cys = new double[sy];
+        for (int i = 0; i < sx; ++i, x_start += x_step) cxs[i] = x_start;
+        for (int j = 0; j < sy; ++j, y_start += y_step) cys[j] = y_start;
+
+        int iterated = 0;
+        int skipped = 0;
+
+        for(int j = 0, k = 0; j < sy; ++j) {
+            final double cy = cys[j];
+            for(int i = 0; i < sx; ++i, ++k) {
+                if (result[k] >= 0) continue;
+                final double cx = cxs[i];
+                iterated++;
+
+                double x = cx;
+                double y = cy;
+                double x2 = x * x;
+                double y2 = y * y;
+                // dz/dc, which is 1 for z1 = c
+                double dx = 1;
+                double dy = 0;
+                int iter = 0;
+                while (x2 + y2 < 4 && iter < max_iter) {
+                    double dxt = 2 * (x * dx - y * dy) + 1;
+                    dy = 2 * (x * dy + y * dx);
+                    dx = dxt;
+                    double xt = x2 - y2 + cx;
+                    y = 2 * x * y + cy;
+                    x = xt;
+                    x2 = xt * xt;
+                    y2 = y * y;
+                    ++iter;
+                }
+
+                result[k] = iter;
+
+                double radius;
+                int fill;
+                if (iter < max_iter) {
+                    // smooth count at the bailout, see mandelbrot2_smooth
+                    double nu = iter + 1 - Math.log(0.5 * Math.log(x2 + y2)) * INV_LOG2;
+
+                    // a few more iterations for an accurate estimate
+                    for (int e = 0; e < 8 && x2 + y2 < 1e6; ++e) {
+                        double dxt = 2 * (x * dx - y * dy) + 1;
+                        dy = 2 * (x * dy + y * dx);
+                        dx = dxt;
+                        double xt = x2 - y2 + cx;
+                        y = 2 * x * y + cy;
+                        x = xt;
+                        x2 = xt * xt;
+                        y2 = y * y;
+                    }
+                    double z = Math.sqrt(x2 + y2);
+                    double dz = Math.sqrt(dx * dx + dy * dy);
+                    radius = dz == 0 ? 0 : 2 * z * Math.log(z) / dz;
+
+                    // The smooth count has a gradient of about 2 / (radius * ln 2),
+                    // so limit the disk to where it should not reach the next integer
+                    // to keep the approximation reasonable.
+                    double margin = Math.min(nu - iter, iter + 1 - nu);
+                    if (margin <= 0) continue;
+                    radius = Math.min(radius, 4 * margin * radius / (2 * INV_LOG2));
+                    fill = iter;
+                } else {
+                    radius = interiorDistance(x, y, cx, cy);
+                    fill = max_iter;
+                }
+
+                // guaranteed radius, in pixels
+                double r = radius / 4 / x_step;
+                if (r < 1 || Double.isNaN(r)) continue;
+                if (r > sx + sy) r = sx + sy;
+
+                final double r2 = r * r;
+                for (int fj = j, dj = 0; fj < sy && dj <= r; ++fj, ++dj) {
+                    int w = (int) Math.sqrt(r2 - dj * dj);
+                    int i1 = dj == 0 ? i + 1 : Math.max(0, i - w);
+                    int i2 = Math.min(sx - 1, i + w);
+                    for (int fi = i1, fk = fj * sx + i1; fi <= i2; ++fi, ++fk) {
+                        if (result[fk] < 0) {
+                            result[fk] = fill;
+                            skipped++;
+                        }
+                    }
+                }
+            } // i
+        } // j
+
+        if (stats != null && stats.length >= 2) {
+            stats[0] = iterated;
+            stats[1] = skipped;
+        }
+    }
+
+    /**
+     * Interior distance estimate for c, given z after max_iter iterations.
+     * <p/>
+     * Looks for the period of the attracting cycle z is converging to, refines
+     * the cycle point with Newton and computes
+     * (1 - |dz|^2) / |dcdz + dzdz * dc / (1 - dz)| over one period.
+     * Returns 0 if no attracting cycle is found.
+     */
+    private static double interiorDistance(double x, double y, double cx, double cy) {
+        // find the period: first return near the reference point
+        double rx = x;
+        double ry = y;
+        int period = 0;
+        for (int p = 1; p <= DE_MAX_PERIOD; ++p) {
+            double xt = x * x - y * y + cx;
+            y = 2 * x * y + cy;
+            x = xt;
+            double ex = x - rx;
+            double ey = y - ry;
+            if (ex * ex + ey * ey < 1e-20) {
+                period = p;
+                break;
+            }
+        }
+        if (period == 0) return 0;
+
+        // refine the cycle point with Newton on f^p(z) - z = 0
+        for (int newton = 0; newton < 4; ++newton) {
+            double zx = x;
+            double zy = y;
+            double dzx = 1;
+            double dzy = 0;
+            for (int p = 0; p < period; ++p) {
+                double dzxt = 2 * (zx * dzx - zy * dzy);
+                dzy = 2 * (zx * dzy + zy * dzx);
+                dzx = dzxt;
+                double zxt = zx * zx - zy * zy + cx;
+                zy = 2 * zx * zy + cy;
+                zx = zxt;
+            }
+            // w -= (f^p(w) - w) / (df^p/dz - 1)
+            double nx = zx - x;
+            double ny = zy - y;
+            double ddx = dzx - 1;
+            double ddy = dzy;
+            double dd = ddx * ddx + ddy * ddy;
+            if (dd == 0) break;
+            x -= (nx * ddx + ny * ddy) / dd;
+            y -= (ny * ddx - nx * ddy) / dd;
+        }
+
+        // derivatives over one period
+        double zx = x;
+        double zy = y;
+        double dzx = 1, dzy = 0;        // dz/dz
+        double dcx = 0, dcy = 0;        // dz/dc
+        double dzzx = 0, dzzy = 0;      // d2z/dz2
+        double dczx = 0, dczy = 0;      // d2z/dcdz
+        for (int p = 0; p < period; ++p) {
+            // dcdz = 2 * (z * dcdz + dz * dc)
+            double t1x = 2 * (zx * dczx - zy * dczy + dzx * dcx - dzy * dcy);
+            double t1y = 2 * (zx * dczy + zy * dczx + dzx * dcy + dzy * dcx);
+            // dzdz = 2 * (dz * dz + z * dzdz)
+            double t2x = 2 * (dzx * dzx - dzy * dzy + zx * dzzx - zy * dzzy);
+            double t2y = 2 * (2 * dzx * dzy + zx * dzzy + zy * dzzx);
+            // dz = 2 * z * dz
+            double t3x = 2 * (zx * dzx - zy * dzy);
+            double t3y = 2 * (zx * dzy + zy * dzx);
+            // dc = 2 * z * dc + 1
+            double t4x = 2 * (zx * dcx - zy * dcy) + 1;
+            double t4y = 2 * (zx * dcy + zy * dcx);
+            dczx = t1x; dczy = t1y;
+            dzzx = t2x; dzzy = t2y;
+            dzx = t3x;  dzy = t3y;
+            dcx = t4x;  dcy = t4y;
+            double zxt = zx * zx - zy * zy + cx;
+            zy = 2 * zx * zy + cy;
+            zx = zxt;
+        }
+
+        double dz2 = dzx * dzx + dzy * dzy;
+        if (dz2 >= 1) return 0; // not attracting
+
+        // dzdz * dc / (1 - dz)
+        double ax = dzzx * dcx - dzzy * dcy;
+        double ay = dzzx * dcy + dzzy * dcx;
+        double bx = 1 - dzx;
+        double by = -dzy;
+        double bb = bx * bx + by * by;
+        double qx = (ax * bx + ay * by) / bb;
+        double qy = (ay * bx - ax * by) / bb;
+
+        double denx = dczx + qx;
+        double deny = dczy + qy;
+        double den = Math.sqrt(denx * denx + deny * deny);
+        if (den == 0) return 0;
+        return (1 - dz2) / den;
+    }
+
+    /** Initial stride of the solid-guessing renderer. Must be a power of 2. */
+    public static final int GUESS_STRIDE = 8;
+
+    /**
+     * Fractint-style solid-guessing Java renderer.
+     * <p/>
+     * First computes a coarse grid of pixels every {@link #GUESS_STRIDE} pixels in
+     * both axes (plus the last row and column). Then the stride is halved: the new
+     * pixels of a grid cell are filled with the value of its 4 corners when they
+     * agree, or computed exactly where they differ. Pixels on the edge between two
+     * cells are only guessed if both cells agree. This is repeated until the
+     * stride is 1, i.e. the last pass fills 2x2 blocks.
+     * <p/>
+     * This is not exact: a feature smaller than the stride and not touching any
+     * computed pixel is missed.
+     * <p/>
+     * If stats is not null, stats[0] receives the number of iterated pixels and
+     * stats[1] the number of guessed pixels.
+     */
+    public static void mandelbrot2_guess(
+            double x_start, double x_step,
+            double y_start, double y_step,
+            int sx, int sy,
+            int max_iter,
+            int size, int[] result, int[] stats) {
+        if (max_iter <= 0 || sx <= 0 || sy <= 0) return;
+
+        // accumulate c exactly like mandelbrot2_java does
+        double[] cxs = new double[sx];
+        double[] cys = new double[sy];
+        for (int i = 0; i < sx; ++i, x_start += x_step) cxs[i] = x_start;
+        for (int j = 0; j < sy; ++j, y_start += y_step) cys[j] = y_start;
+
+        int iterated = 0;
+        int guessed = 0;
+
+        // coarse grid
+        int s = GUESS_STRIDE;
+        for (int j = 0; j < sy; ++j) {
+            if (!isGuessGrid(j, s, sy)) continue;
+            for (int i = 0, k = j * sx; i < sx; ++i, ++k) {
+                if (!isGuessGrid(i, s, sx)) continue;
+                result[k] = mandelbrot2_point(cxs[i], cys[j], max_iter);
+                iterated++;
+            }
+        }
+
+        boolean[] uniform = new boolean[guessCells(sx, 1) * guessCells(sy, 1)];
+
+        for (; s > 1; s >>= 1) {
+            final int h = s >> 1;
+            final int ncx = guessCells(sx, s);
+            final int ncy = guessCells(sy, s);
+
+            // which cells have 4 identical corners
+            for (int cj = 0; cj < ncy; ++cj) {
+                int j0 = cj * s;
+                int j1 = Math.min(j0 + s, sy - 1);
+                for (int ci = 0; ci < ncx; ++ci) {
+                    int i0 = ci * s;
+                    int i1 = Math.min(i0 + s, sx - 1);
+                    int v = result[j0 * sx + i0];
+                    uniform[cj * ncx + ci] =
+                        result[j0 * sx + i1] == v &&
+                        result[j1 * sx + i0] == v &&
+                        result[j1 * sx + i1] == v;
+                }
+            }
+
+            // new pixels of the finer grid
+            for (int j = 0; j < sy; ++j) {
+                if (!isGuessGrid(j, h, sy)) continue;
+                final boolean oldj = isGuessGrid(j, s, sy);
+                for (int i = 0, k = j * sx; i < sx; ++i, ++k) {
+                    if (!isGuessGrid(i, h, sx)) continue;
+                    if (oldj && isGuessGrid(i, s, sx)) continue;
+
+                    // all the cells this pixel belongs to must be uniform
+                    int ci0 = guessCellMin(i, s, sx);
+                    int ci1 = guessCellMax(i, s, sx, ncx);
+                    int cj0 = guessCellMin(j, s, sy);
+                    int cj1 = guessCellMax(j, s, sy, ncy);
+                    boolean guess = true;
+                    for (int cj = cj0; guess && cj <= cj1; ++cj) {
+                        for (int ci = ci0; ci <= ci1; ++ci) {
+                            if (!uniform[cj * ncx + ci]) {
+                                guess = false;
+                                break;
+                            }
+                        }
+                    }
+
+                    if (guess) {
+                        result[k] = result[(cj0 * s) * sx + ci0 * s];
+                        guessed++;
+                    } else {
+                        result[k] = mandelbrot2_point(cxs[i], cys[j], max_iter);
+                        iterated++;
+                    }
+                }
+            }
+        }
+
+        if (stats != null && stats.length >= 2) {
+            stats[0] = iterated;
+            stats[1] = guessed;
+        }
+    }
+
+    /** The guess grid at stride s: multiples of s plus the last pixel. */
+    private static boolean isGuessGrid(int i, int s, int n) {
+        return (i & (s - 1)) == 0 || i == n - 1;
+    }
+
+    /** Number of cells of the guess grid at stride s. */
+    private static int guessCells(int n, int s) {
+        return n <= 1 ? 1 : (n - 2) / s + 1;
+    }
+
+    /** First cell containing pixel i of the guess grid at stride s. */
+    private static int guessCellMin(int i, int s, int n) {
+        if (i == n - 1) return guessCells(n, s) - 1;
+        int c = i / s;
+        return ((i & (s - 1)) == 0 && c > 0) ? c - 1 : c;
+    }
+
+    /** Last cell containing pixel i of the guess grid at stride s. */
+    private static int guessCellMax(int i, int s, int n, int ncells) {
+        if (i == n - 1) return ncells - 1;
+        return Math.min(i / s, ncells - 1);
+    }
+
+    /** Iteration count of a single point, same as mandelbrot2_java. */
+    private static int mandelbrot2_point(double x_start, double y_start, int max_iter) {
+        double x = x_start;
+        double y = y_start;
+        double x2 = x * x;
+        double y2 = y * y;
+        int iter = 0;
+        while (x2 + y2 < 4 && iter < max_iter) {
+            double xt = x2 - y2 + x_start;
+            y = 2 * x * y + y_start;
+            x = xt;
+            x2 = xt * xt;
+            y2 = y * y;
+            ++iter;
+        }
+        return iter;
+    }
+
+    /**
+     * Java rendering using the classic double algorithm, same as
+     * {@link #mandelbrot2_java} except the result goes in the given {@link IterState},
+     * which also records the (x, y) state of all pixels that did not escape.
+     * <p/>
+     * The state can later be given to {@link #mandelbrot2_resume(int, IterState)}
+     * to continue with a higher max_iter.
+     * <p/>
+     * Aborts if maxIter or sx or sy <= 0.
+     */
+    public static void mandelbrot2_state(
+            double x_start, double x_step,
+            double y_start, double y_step,
+            int sx, int sy,
+            int max_iter,
+            IterState state) {
+        if (max_iter <= 0 || sx <= 0 || sy <= 0) return;
+        state.reset(x_start, x_step, y_start, y_step, sx, sy, max_iter);
+        int[] result = state.getIters();
+
+        double x_begin = x_start;
+        for(int j = 0, k = 0; j < sy; ++j, y_start += y_step) {
+            x_start = x_begin;
+            for(int i = 0; i < sx; ++i, ++k, x_start += x_step) {
+                double x = x_start;
+                double y = y_start;
+                double x2 = x * x;
+                double y2 = y * y;
+                int iter = 0;
+                while (x2 + y2 < 4 && iter < max_iter) {
+                    double xt = x2 - y2 + x_start;
+                    y = 2 * x * y + y_start;
+                    x = xt;
+                    x2 = xt * xt;
+                    y2 = y * y;
+                    ++iter;
+                }
+
+                result[k] = iter;
+                if (iter == max_iter) state.addActive(k, x, y);
+            } // i
+        } // j
+    }
+
+    /**
+     * Continues a block computed by {@link #mandelbrot2_state} up to a higher max_iter.
+     * <p/>
+     * Only the pixels that had not escaped are iterated, starting from their saved
+     * (x, y) state. The result is identical to calling mandelbrot2_state with the
+     * new max_iter from scratch. Pixels that escape are dropped from the state.
+     * <p/>
+     * Does nothing if max_iter is not larger than the state's current max_iter.
+     */
+    public static void mandelbrot2_resume(int max_iter, IterState state) {
+        final int old_max_iter = state.getMaxIter();
+        if (max_iter <= old_max_iter) return;
+
+        final int sx = state.getSx();
+        final int sy = state.getSy();
+        final int[] result = state.getIters();
+        final int[] index = state.getActiveIndex();
+        final double[] ax = state.getActiveX();
+        final double[] ay = state.getActiveY();
+        final int n = state.getNumActive();
+
+        // Rebuild c exactly like mandelbrot2_state does it, by accumulating
+        // the steps, so that resuming gives bit-identical results.
+        double[] cx = new double[sx];
+        double[] cy = new double[sy];
+        double c = state.getXStart();
+        for (int i = 0; i < sx; ++i, c += state.getXStep()) cx[i] = c;
+        c = state.getYStart();
+        for (int j = 0; j < sy; ++j, c += state.getYStep()) cy[j] = c;
+
+        int w = 0;
+        for (int a = 0; a < n; ++a) {
+            final int k = index[a];
+            final double x_start = cx[k % sx];
+            final double y_start = cy[k / sx];
+            double x = ax[a];
+            double y = ay[a];
+            double x2 = x * x;
+            double y2 = y * y;
+            int iter = old_max_iter;
+            while (x2 + y2 < 4 && iter < max_iter) {
+                double xt = x2 - y2 + x_start;
+                y = 2 * x * y + y_start;
+                x = xt;
+                x2 = xt * xt;
+                y2 = y * y;
+                ++iter;
+            }
+
+            result[k] = iter;
+            if (iter == max_iter) {
+                // still not escaped, keep it (compacting in place)
+                index[w] = k;
+                ax[w] = x;
+                ay[w] = y;
+                ++w;
+            }
+        }
+
+        state.setNumActive(w);
+        state.setMaxIter(max_iter);
+    }
+
+    /**
+     * Same as {@link #mandelbrot2_state} except that one pixel out of four is taken
+     * from the state of the parent block at the previous zoom level.
+     * <p/>
+     * Zoom levels double, so the child pixels at even (i, j) are exactly at the
+     * coordinates of the parent pixels (px0 + i/2, py0 + j/2). The caller must make
+     * sure this is true, including for the accumulated x/y steps (which is the
+     * case with the power-of-2 steps used by the tiles.)
+     * <p/>
+     * Escaped parent pixels are copied and non-escaped ones are resumed from
+     * their saved (x, y) state, so the parent's max_iter must not be larger than
+     * this max_iter; otherwise this falls back to a full mandelbrot2_state.
+     * <p/>
+     * slots is a scratch array of at least the parent's sx*sy, it doesn't need
+     * to be cleared. A new one is allocated if it's null or too small.
+     * <p/>
+     * Returns the number of pixels that were reused from the parent.
+     */
+    public static int mandelbrot2_parent(
+            double x_start, double x_step,
+            double y_start, double y_step,
+            int sx, int sy,
+            int max_iter,
+            IterState state,
+            IterState parent, int px0, int py0,
+            int[] slots) {
+        if (max_iter <= 0 || sx <= 0 || sy <= 0) return 0;
+        final int parent_max_iter = parent.getMaxIter();
+        final int psx = parent.getSx();
+        if (parent_max_iter > max_iter ||
+                px0 < 0 || px0 + (sx + 1) / 2 > psx ||
+                py0 < 0 || py0 + (sy + 1) / 2 > parent.getSy()) {
+            mandelbrot2_state(x_start, x_step, y_start, y_step, sx, sy, max_iter, state);
+            return 0;
+        }
+
+        state.reset(x_start, x_step, y_start, y_step, sx, sy, max_iter);
+        final int[] result = state.getIters();
+        final int[] piters = parent.getIters();
+        final double[] pax = parent.getActiveX();
+        final double[] pay = parent.getActiveY();
+
+        // map the parent's non-escaped pixels to their saved state slot
+        if (slots == null || slots.length < piters.length) {
+            slots = new int[piters.length];
+        }
+        int[] pindex = parent.getActiveIndex();
+        for (int a = 0, n = parent.getNumActive(); a < n; ++a) {
+            slots[pindex[a]] = a;
+        }
+
+        int reused = 0;
+        double x_begin = x_start;
+        for(int j = 0, k = 0; j < sy; ++j, y_start += y_step) {
+            x_start = x_begin;
+            final int pk_row = (j & 1) == 0 ? (py0 + (j >> 1)) * psx + px0 : -1;
+            for(int i = 0; i < sx; ++i, ++k, x_start += x_step) {
+                double x;
+                double y;
+                int iter;
+                if (pk_row >= 0 && (i & 1) == 0) {
+                    final int pk = pk_row + (i >> 1);
+                    iter = piters[pk];
+                    ++reused;
+                    if (iter < parent_max_iter) {
+                        // escaped in the parent, it's final
+                        result[k] = iter;
+                        continue;
+                    }
+                    // resume from the parent state
+                    final int a = slots[pk];
+                    x = pax[a];
+                    y = pay[a];
+                } else {
+                    x = x_start;
+                    y = y_start;
+                    iter = 0;
+                }
+
+                double x2 = x * x;
+                double y2 = y * y;
+                while (x2 + y2 < 4 && iter < max_iter) {
+                    double xt = x2 - y2 + x_start;
+                    y = 2 * x * y + y_start;
+                    x = xt;
+                    x2 = xt * xt;
+                    y2 = y * y;
+                    ++iter;
+                }
+
+                result[k] = iter;
+                if (iter == max_iter) state.addActive(k, x, y);
+            } // i
+        } // j
+
+        return reused;
+    }
+
     // ------------------------------------------------------------------------
 
     /**
@@ -221,5 +1086,171 @@ public class JavaMandel {
         } // j
         return true;
     }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Java rendering of the Julia set of z^2+c using the classic double algorithm.
+     * <p/>
+     * Same as {@link #mandelbrot2} except that the pixel is the starting z and
+     * the constant c = c_x + i.c_y is the same for the whole block.
+     * Returns SX*SY int ranging [0..maxIter].
+     * <p/>
+     * Aborts if maxIter or sx or sy <= 0.
+     */
+    public static void julia2(
+            double x_start, double x_step,
+            double y_start, double y_step,
+            int sx, int sy,
+            double c_x, double c_y,
+            int max_iter,
+            int size, int[] result) {
+        julia2_java(x_start, x_step, y_start, y_step, sx, sy, c_x, c_y, max_iter, size, result);
+    }
+
+    protected static void julia2_java(
+            double x_start, double x_step,
+            double y_start, double y_step,
+            int sx, int sy,
+            final double c_x, final double c_y,
+            int max_iter,
+            int size, int[] result) {
+        if (max_iter <= 0) return;
+        double x_begin = x_start;
+        for(int j = 0, k = 0; j < sy; ++j, y_start += y_step) {
+            x_start = x_begin;
+            for(int i = 0; i < sx; ++i, ++k, x_start += x_step) {
+                double x = x_start;
+                double y = y_start;
+                double x2 = x * x;
+                double y2 = y * y;
+                int iter = 0;
+                while (x2 + y2 < 4 && iter < max_iter) {
+                    double xt = x2 - y2 + c_x;
+                    y = 2 * x * y + c_y;
+                    x = xt;
+                    x2 = xt * xt;
+                    y2 = y * y;
+                    ++iter;
+                }
+
+                result[k] = iter;
+            } // i
+        } // j
+    }
+
+    /**
+     * Java rendering of the Julia set of z^2+c in fixed-point 16 bits (8.8).
+     * <p/>
+     * Same conventions as {@link #mandelbrot3}: max_iter and the result are
+     * bytes biased by -128. Returns false if there isn't enough precision to
+     * use fp16 or if maxter is -128 (which represents 0 here).
+     */
+    public static boolean julia3(
+            double x_start, double x_step,
+            double y_start, double y_step,
+            int sx, int sy,
+            double c_x, double c_y,
+            byte max_iter,
+            int size, byte[] result) {
+        return julia3_java(x_start, x_step, y_start, y_step, sx, sy, c_x, c_y, max_iter, size, result);
+    }
+
+    protected static boolean julia3_java(
+            final double x_start, final double x_step,
+            final double y_start, final double y_step,
+            final int sx, final int sy,
+            final double c_x, final double c_y,
+            final byte max_iter,
+            final int size, byte[] result) {
+        if (max_iter == -128) return false;
+        final int ix_step = (int)(x_step  * 256);
+        final int iy_step = (int)(y_step  * 256);
+        if (ix_step <= 0 || iy_step <= 0) return false;
+        final int ic_x = (int)(c_x * 256);
+        final int ic_y = (int)(c_y * 256);
+        int ix_start = (int)(x_start * 256);
+        int iy_start = (int)(y_start * 256);
+
+        int ix_begin = ix_start;
+        for(int j = 0, k = 0; j < sy; ++j, iy_start += iy_step) {
+            ix_start = ix_begin;
+            for(int i = 0; i < sx; ++i, ++k, ix_start += ix_step) {
+                int ix = ix_start;
+                int iy = iy_start;
+                int ix2 = (ix * ix) >> 8;
+                int iy2 = (iy * iy) >> 8;
+                byte iter = -128;
+                while (ix2 + iy2 < (4<<8) && iter < max_iter) {
+                  int ixt = (ix2 - iy2) + ic_x;
+                  iy = ((2 * ix * iy) >> 8) + ic_y;
+                  ix = ixt;
+                  ix2 = (ixt * ixt) >> 8;
+                  iy2 = (iy * iy) >> 8;
+                  ++iter;
+                }
+
+                result[k] = iter;
+            } // i
+        } // j
+        return true;
+    }
+
+    /**
+     * Java rendering of the Julia set of z^2+c in fixed-point 32 bits (16.16).
+     * <p/>
+     * Same conventions as {@link #mandelbrot4}: max_iter and the result are
+     * bytes biased by -128. Returns false if there isn't enough precision to
+     * use fp32 or if maxter is -128 (which represents 0 here).
+     */
+    public static boolean julia4(
+            double x_start, double x_step,
+            double y_start, double y_step,
+            int sx, int sy,
+            double c_x, double c_y,
+            byte max_iter,
+            int size, byte[] result) {
+        return julia4_java(x_start, x_step, y_start, y_step, sx, sy, c_x, c_y, max_iter, size, result);
+    }
+
+    protected static boolean julia4_java(
+            final double x_start, final double x_step,
+            final double y_start, final double y_step,
+            final int sx, final int sy,
+            final double c_x, final double c_y,
+            final byte max_iter,
+            final int size, byte[] result) {
+        if (max_iter == -128) return false;
+        final int ix_step = (int)(x_step  * 65536);
+        final int iy_step = (int)(y_step  * 65536);
+        if (ix_step <= 0 || iy_step <= 0) return false;
+        final int ic_x = (int)(c_x * 65536);
+        final int ic_y = (int)(c_y * 65536);
+        int ix_start = (int)(x_start * 65536);
+        int iy_start = (int)(y_start * 65536);
+
+        int ix_begin = ix_start;
+        for(int j = 0, k = 0; j < sy; ++j, iy_start += iy_step) {
+            ix_start = ix_begin;
+            for(int i = 0; i < sx; ++i, ++k, ix_start += ix_step) {
+                long Lx = (long)ix_start;
+                long Ly = (long)iy_start;
+                int ix2 = (int)((Lx * Lx) >> 16);
+                int iy2 = (int)((Ly * Ly) >> 16);
+                byte iter = -128;
+                while (ix2 + iy2 < (4<<16) && iter < max_iter) {
+                  int ixt = (ix2 - iy2) + ic_x;
+                  Ly = ((2 * Lx * Ly) >> 16) + ic_y;
+                  Lx = (long)ixt;
+                  ix2 = (int)((Lx * Lx) >> 16);
+                  iy2 = (int)((Ly * Ly) >> 16);
+                  ++iter;
+                }
+
+                result[k] = iter;
+            } // i
+        } // j
+        return true;
+    }
 }
 
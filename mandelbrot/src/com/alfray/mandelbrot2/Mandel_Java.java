@@ -0,0 +1,286 @@
+/*
+ * Copyright 2008 (c) ralfoide gmail com, 2008
+ * Project: Mandelbrot
+ * License: GPL version 3 or any later version
+ */
+
+package com.alfray.mandelbrot2;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pure Java data-parallel equivalent of Mandel_RS.
+ * <p/>
+ * Follows the same model as mandel_foreach.rs / mandel_root.rs: a {@link Params}
+ * struct with the same fields as Params_t and a per-pixel {@link Root} kernel
+ * called for every (x, y) of the output, like rsForEach does. Rows are handed
+ * out in small bands to a pool of one thread per core (the calling thread
+ * being one of them), so a band with a lot of set pixels doesn't hold the
+ * others back.
+ * <p/>
+ * The split is adaptive: a few probe pixels estimate the cost of the block
+ * first, a cheap block is computed by fewer threads (or just the calling one)
+ * and an expensive one is cut in more, thinner bands.
+ * <p/>
+ * The same pool can also run several independent jobs at once with
+ * {@link #runAll(Runnable[])}, e.g. whole tiles. A forEach called from within
+ * such a job only splits on that job's share of the cores.
+ * <p/>
+ * Doesn't need RenderScript, works on any JVM.
+ */
+public class Mandel_Java {
+
+    /** The cost is estimated on a PROBE_GRID x PROBE_GRID grid of pixels. */
+    private static final int PROBE_GRID = 8;
+    /** Minimum estimated iterations worth handing to another thread. */
+    private static final int MIN_COST_PER_TASK = 32 * 1024;
+    /** Number of bands per thread, so that threads done early steal the others' work. */
+    private static final int BANDS_PER_TASK = 4;
+
+    /** Same fields and semantics as Params_t in mandel_params.rsh */
+    public static class Params {
+        public double x_start;
+        public double x_step;
+        public double y_start;
+        public double y_step;
+        public int max_iter;
+    }
+
+    /** The per-pixel kernel, same contract as root() in mandel_root.rs */
+    public interface Root {
+        public int root(Params p, int x, int y);
+    }
+
+    /** Same computation as root() in mandel_root.rs */
+    public static final Root MANDEL_ROOT = new Root() {
+        public int root(Params p, int x, int y) {
+            double x0 = p.x_start + p.x_step * x;
+            double y0 = p.y_start + p.y_step * y;
+
+            double x1 = x0;
+            double y1 = y0;
+            double x2 = x1 * x1;
+            double y2 = y1 * y1;
+            int iter = 0;
+            final int max_iter = p.max_iter;
+            while ((x2 + y2) < 4 && iter < max_iter) {
+                double xtemp = x2 - y2 + x0;
+                y1 = 2 * x1 * y1 + y0;
+                x1 = xtemp;
+                x2 = x1 * x1;
+                y2 = y1 * y1;
+                ++iter;
+            }
+
+            return iter;
+        }
+    };
+
+    private static final int sNumThreads = Runtime.getRuntime().availableProcessors();
+    private static ExecutorService sExecutor;
+
+    /**
+     * For a thread running one of the runAll() jobs, the number of threads
+     * forEach() can split a block on: its share of the cores. Null otherwise.
+     */
+    private static final ThreadLocal<Integer> sJobThreads = new ThreadLocal<Integer>();
+
+    /** True if there's more than one core to use. */
+    public static boolean isUseful() {
+        return sNumThreads > 1;
+    }
+
+    public static int getNumThreads() {
+        return sNumThreads;
+    }
+
+    public synchronized static void dispose() {
+        if (sExecutor != null) {
+            sExecutor.shutdownNow();
+            sExecutor = null;
+        }
+    }
+
+    private synchronized static ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newFixedThreadPool(sNumThreads - 1, new ThreadFactory() {
+                private int mCount;
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Mandel_Java" + (mCount++));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return sExecutor;
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Same as {@link Mandel_RS#mandelbrot2_RS}: computes a block using
+     * x_start+x_step / y_start+y_step with the mandel root kernel.
+     */
+    public static void mandelbrot2_parallel(
+            double x_start, double x_step,
+            double y_start, double y_step,
+            int sx, int sy,
+            int max_iter,
+            int size, int[] result) {
+        if (max_iter <= 0) return;
+        Params p = new Params();
+        p.x_start = x_start;
+        p.x_step = x_step;
+        p.y_start = y_start;
+        p.y_step = y_step;
+        p.max_iter = max_iter;
+
+        forEach(MANDEL_ROOT, p, sx, sy, result);
+    }
+
+    /**
+     * Estimates the cost of a sx*sy block, in iterations, by running the root
+     * kernel on a grid of probe pixels.
+     */
+    public static long estimateCost(Root root, Params p, int sx, int sy) {
+        final int g = PROBE_GRID;
+        long sum = 0;
+        for (int j = 0; j < g; j++) {
+            int y = (2 * j + 1) * sy / (2 * g);
+            for (int i = 0; i < g; i++) {
+                int x = (2 * i + 1) * sx / (2 * g);
+                sum += root.root(p, x, y) + 1;
+            }
+        }
+        return sum * sx * sy / (g * g);
+    }
+
+    /**
+     * Returns the number of threads, including the calling one, to split a block
+     * of that estimated cost on.
+     */
+    public static int getNumTasks(long cost) {
+        long n = cost / MIN_COST_PER_TASK;
+        if (n < 1) return 1;
+        return n < sNumThreads ? (int) n : sNumThreads;
+    }
+
+    /**
+     * Equivalent of rsForEach: calls root for every pixel of the sx*sy output
+     * and stores the result at out[y * sx + x]. Returns once all rows are done.
+     */
+    public static void forEach(final Root root, final Params p,
+            final int sx, final int sy, final int[] out) {
+        int numThreads = 1;
+        Integer maxThreads = sJobThreads.get();
+        if (sNumThreads > 1 && (maxThreads == null || maxThreads > 1)) {
+            numThreads = getNumTasks(estimateCost(root, p, sx, sy));
+            if (maxThreads != null) numThreads = Math.min(numThreads, maxThreads);
+        }
+
+        final int rowsPerBand = Math.max(1, sy / (numThreads * BANDS_PER_TASK));
+        final AtomicInteger nextRow = new AtomicInteger();
+
+        Runnable band = new Runnable() {
+            public void run() {
+                int y0;
+                while ((y0 = nextRow.getAndAdd(rowsPerBand)) < sy) {
+                    int y1 = Math.min(y0 + rowsPerBand, sy);
+                    for (int y = y0, k = y0 * sx; y < y1; y++) {
+                        for (int x = 0; x < sx; x++, k++) {
+                            out[k] = root.root(p, x, y);
+                        }
+                    }
+                }
+            }
+        };
+
+        int numTasks = Math.min(numThreads - 1, (sy + rowsPerBand - 1) / rowsPerBand - 1);
+        if (numTasks <= 0) {
+            band.run();
+            return;
+        }
+
+        ExecutorService executor = getExecutor();
+        Future<?>[] futures = new Future<?>[numTasks];
+        for (int i = 0; i < numTasks; i++) {
+            futures[i] = executor.submit(band);
+        }
+
+        // the calling thread works too
+        band.run();
+
+        await(futures);
+    }
+
+    /**
+     * Runs all the jobs, in order, on the pool threads and the calling one.
+     * Each thread takes the next job when it's done with the previous one, so
+     * with jobs sorted by decreasing cost the longest ones start first and the
+     * short ones fill the gaps at the end. Returns once all jobs are done.
+     * <p/>
+     * When there are fewer jobs than cores, a job can still split its blocks
+     * in forEach() on its share of the cores, so that none of them sits idle.
+     * The shares never add up to more than the pool and the calling thread.
+     */
+    public static void runAll(final Runnable[] jobs) {
+        if (jobs.length == 0) return;
+        final AtomicInteger nextJob = new AtomicInteger();
+        final Integer jobThreads = Integer.valueOf(Math.max(1, sNumThreads / jobs.length));
+
+        Runnable worker = new Runnable() {
+            public void run() {
+                sJobThreads.set(jobThreads);
+                try {
+                    int k;
+                    while ((k = nextJob.getAndIncrement()) < jobs.length) {
+                        jobs[k].run();
+                    }
+                } finally {
+                    sJobThreads.set(null);
+                }
+            }
+        };
+
+        int numTasks = Math.min(sNumThreads, jobs.length) - 1;
+        if (numTasks <= 0) {
+            worker.run();
+            return;
+        }
+
+        ExecutorService executor = getExecutor();
+        Future<?>[] futures = new Future<?>[numTasks];
+        for (int i = 0; i < numTasks; i++) {
+            futures[i] = executor.submit(worker);
+        }
+
+        worker.run();
+
+        await(futures);
+    }
+
+    private static void await(Future<?>[] futures) {
+        // The TileThread is interrupted to be woken up when tiles are scheduled,
+        // which must not abort the computation: keep waiting and restore the flag.
+        boolean interrupted = false;
+        for (int i = 0; i < futures.length; ) {
+            try {
+                futures[i].get();
+                i++;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
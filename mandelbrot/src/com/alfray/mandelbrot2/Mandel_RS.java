@@ -4,6 +4,7 @@ import android.content.Context;
 import android.renderscript.Allocation;
 import android.renderscript.Element;
 import android.renderscript.RenderScript;
+import android.renderscript.Script;
 import android.renderscript.Type;
 import android.renderscript.Type.Builder;
 import android.util.Log;
@@ -20,6 +21,8 @@ public class Mandel_RS {
     private static RenderScript mRs;
     private static ScriptC_mandel_foreach mScriptForEach;
     private static ScriptC_mandel_root mScriptRoot;
+    private static ScriptC_mandel_root_unroll mScriptRootUnroll;
+    private static Script mCurrentRoot;
     private static Allocation mAlloc;
     private static Allocation mAlloc2;
 
@@ -30,6 +33,7 @@ public class Mandel_RS {
                 mRs = RenderScript.create(context);
                 mScriptForEach = new ScriptC_mandel_foreach(mRs, context.getResources(), R.raw.mandel_foreach);
                 mScriptRoot = new ScriptC_mandel_root(mRs, context.getResources(), R.raw.mandel_root);
+                mScriptRootUnroll = new ScriptC_mandel_root_unroll(mRs, context.getResources(), R.raw.mandel_root_unroll);
             }
             return true;
         } catch (Throwable t) {
@@ -45,6 +49,8 @@ public class Mandel_RS {
             mAlloc = null;
             mScriptForEach = null;
             mScriptRoot = null;
+            mScriptRootUnroll = null;
+            mCurrentRoot = null;
         }
     }
 
@@ -56,6 +62,29 @@ public class Mandel_RS {
             int sx, int sy,
             int max_iter,
             int size, int[] result) {
+        mandelbrot2_RS(mScriptRoot, x_start, x_step, y_start, y_step, sx, sy, max_iter, size, result);
+    }
+
+    /**
+     * Same as {@link #mandelbrot2_RS} using the root kernel that only checks
+     * for escape every 4 iterations. Results are identical.
+     */
+    public static void mandelbrot2_RS_unroll(
+            double x_start, double x_step,
+            double y_start, double y_step,
+            int sx, int sy,
+            int max_iter,
+            int size, int[] result) {
+        mandelbrot2_RS(mScriptRootUnroll, x_start, x_step, y_start, y_step, sx, sy, max_iter, size, result);
+    }
+
+    private static void mandelbrot2_RS(
+            Script root,
+            double x_start, double x_step,
+            double y_start, double y_step,
+            int sx, int sy,
+            int max_iter,
+            int size, int[] result) {
 
         if (mAlloc == null || mAlloc.getType().getCount() != size) {
             if (mAlloc != null) mAlloc.destroy();
@@ -69,9 +98,14 @@ public class Mandel_RS {
             if (DEBUG) Log.d(TAG,
                 String.format("Create alloc of size %d", mAlloc.getType().getCount()));
 
-            mScriptForEach.set_gScriptRoot(mScriptRoot);
             mScriptForEach.set_gResult(mAlloc);
             mScriptForEach.set_gIn(mAlloc2);
+            mCurrentRoot = null;
+        }
+
+        if (mCurrentRoot != root) {
+            mScriptForEach.set_gScriptRoot(root);
+            mCurrentRoot = root;
         }
 
         mScriptForEach.invoke_mandel2(x_start, x_step, y_start, y_step, max_iter);
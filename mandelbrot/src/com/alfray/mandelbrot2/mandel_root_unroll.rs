@@ -0,0 +1,59 @@
+#pragma version(1)
+
+#pragma rs java_package_name(com.alfray.mandelbrot2)
+
+rs_allocation gIn;
+rs_allocation gResult;
+rs_script gScript;
+
+#include "mandel_params.rsh"
+
+// Same as mandel_root.rs except escape is only checked every 4 iterations.
+// Once detected, we roll back to the state saved at the start of the block
+// and finish one iteration at a time, so the result is identical.
+
+#define MANDEL_STEP             \
+    xtemp = x2 - y2 + x0;       \
+    y1 = 2 * x1 * y1 + y0;      \
+    x1 = xtemp;                 \
+    x2 = x1 * x1;               \
+    y2 = y1 * y1;
+
+void root(const void *in, int *out, const Params_t *usrData, uint32_t x, uint32_t y) {
+
+    double x0 = usrData->x_start + usrData->x_step * x;
+    double y0 = usrData->y_start + usrData->y_step * y;
+    int max_iter = usrData->max_iter;
+    int max_block = max_iter - 4;
+
+    double x1 = x0;
+    double y1 = y0;
+    double x2 = x1 * x1;
+    double y2 = y1 * y1;
+    double xtemp;
+    int iter = 0;
+    while ((x2 + y2) < 4 && iter <= max_block) {
+        double x_saved = x1;
+        double y_saved = y1;
+        MANDEL_STEP
+        MANDEL_STEP
+        MANDEL_STEP
+        MANDEL_STEP
+        iter += 4;
+        if (!((x2 + y2) < 4)) {
+            x1 = x_saved;
+            y1 = y_saved;
+            x2 = x1 * x1;
+            y2 = y1 * y1;
+            iter -= 4;
+            break;
+        }
+    }
+
+    while ((x2 + y2) < 4 && iter < max_iter) {
+        MANDEL_STEP
+        ++iter;
+    }
+
+    *out = iter;
+}
@@ -59,4 +59,33 @@ public class BasePrefsValues {
     public boolean useRenderScript() {
         return mPrefs.getBoolean("use_rs", true);
     }
+
+    public boolean useParallel() {
+        return mPrefs.getBoolean("use_parallel", true);
+    }
+
+    public boolean keepIterState() {
+        return mPrefs.getBoolean("keep_iter_state", false);
+    }
+
+    public boolean smoothColors() {
+        return mPrefs.getBoolean("smooth_colors", false);
+    }
+
+    public boolean distanceEstimation() {
+        return mPrefs.getBoolean("distance_estimation", false);
+    }
+
+    public boolean solidGuessing() {
+        return mPrefs.getBoolean("solid_guessing", false);
+    }
+
+    public boolean interiorTiles() {
+        return mPrefs.getBoolean("interior_tiles", false);
+    }
+
+    /** Name of the {@link com.alfray.mandelbrot2.Formula} to render. */
+    public String formula() {
+        return mPrefs.getString("formula", "z2");
+    }
 }
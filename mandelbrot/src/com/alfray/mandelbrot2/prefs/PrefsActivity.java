@@ -1,6 +1,7 @@
 package com.alfray.mandelbrot2.prefs;
 
 import android.os.Bundle;
+import android.preference.CheckBoxPreference;
 import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.Preference.OnPreferenceChangeListener;
@@ -13,6 +14,13 @@ import com.alfray.mandelbrot2.R;
  */
 public class PrefsActivity extends PreferenceActivity {
 
+    /**
+     * Tile renderers of which only one can be on, see
+     * {@link JavaMandel#prefsChanged(android.content.Context)}.
+     */
+    private static final String[] RENDERER_KEYS = { "keep_iter_state",
+        "smooth_colors", "distance_estimation", "solid_guessing" };
+
     protected boolean mDataChanged = false;
 
     @Override
@@ -24,14 +32,38 @@ public class PrefsActivity extends PreferenceActivity {
         setTitle(getString(R.string.prefs_title).replaceAll("\\$APP", appName));
 
 
-        Preference useDataTogglePref = findPreference("use_rs");
-        if (useDataTogglePref != null) {
-            useDataTogglePref.setOnPreferenceChangeListener(new OnPreferenceChangeListener() {
-                public boolean onPreferenceChange(Preference preference, Object newValue) {
-                    mDataChanged  = true;
-                    return true;
+        OnPreferenceChangeListener changeListener = new OnPreferenceChangeListener() {
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+                mDataChanged  = true;
+                if (Boolean.TRUE.equals(newValue)) {
+                    uncheckOtherRenderers(preference.getKey());
                 }
-            });
+                return true;
+            }
+        };
+
+        for (String key : new String[] { "use_rs", "use_parallel", "keep_iter_state",
+                "smooth_colors", "distance_estimation", "solid_guessing", "interior_tiles",
+                "formula" }) {
+            Preference pref = findPreference(key);
+            if (pref != null) {
+                pref.setOnPreferenceChangeListener(changeListener);
+            }
+        }
+    }
+
+    /** Turning a renderer on turns the other ones off. */
+    private void uncheckOtherRenderers(String key) {
+        boolean isRenderer = false;
+        for (String k : RENDERER_KEYS) {
+            if (k.equals(key)) isRenderer = true;
+        }
+        if (!isRenderer) return;
+        for (String k : RENDERER_KEYS) {
+            Preference pref = findPreference(k);
+            if (!k.equals(key) && pref instanceof CheckBoxPreference) {
+                ((CheckBoxPreference) pref).setChecked(false);
+            }
         }
     }
 
@@ -1,5 +1,8 @@
 package com.alfray.mandelbrot2.tests;
 
+import java.util.Arrays;
+import java.util.Comparator;
+
 import android.app.Activity;
 import android.os.Bundle;
 import android.util.Log;
@@ -8,9 +11,15 @@ import android.widget.Button;
 import android.widget.ScrollView;
 import android.widget.TextView;
 
+import com.alfray.mandelbrot2.Buddhabrot;
+import com.alfray.mandelbrot2.Formula;
+import com.alfray.mandelbrot2.Formulas;
+import com.alfray.mandelbrot2.IterState;
 import com.alfray.mandelbrot2.JavaMandel;
+import com.alfray.mandelbrot2.Mandel_Java;
 import com.alfray.mandelbrot2.Mandel_RS;
 import com.alfray.mandelbrot2.R;
+import com.alfray.mandelbrot2.tiles.TileContext;
 
 //-----------------------------------------------
 
@@ -96,19 +105,39 @@ public class TestActivity extends Activity {
         private static final float FULL_X_START = -1f;
         private static final float FULL_Y_START = -1f;
 
+        private static final float POI_STEP = 0.05f / SIZE;
+
+        private static final double JULIA_CX = -0.8;
+        private static final double JULIA_CY = 0.156;
+
         private static final float BLACK_STEP = 0.5f / SIZE;
         private static final float BLACK_X_START = -0.5f;
         private static final float BLACK_Y_START = -0.5f;
 
+        /** The full view is split in SCREEN_TILES x SCREEN_TILES tiles by test_screen. */
+        private static final int SCREEN_TILES = 4;
+
         private int mState;
         private int[] mResults2;
+        /** The reference counts the results of a variant are compared to. */
+        private int[] mExpected;
+        private int[][] mScreen;
         private byte[] mResults3;
+        private float[] mSmooth;
+        private IterState mIterState;
+        private IterState mParentState;
+        private int[] mSlots;
 
 
         public AccessWrapper() {
             mState = 1;
             mResults2 = new int[SIZE*SIZE];
+            mExpected = new int[SIZE*SIZE];
+            mSlots = new int[SIZE*SIZE];
             mResults3 = new byte[SIZE*SIZE];
+            mSmooth = new float[SIZE*SIZE];
+            mIterState = new IterState();
+            mParentState = new IterState();
         }
 
         public void writeResult(String format, Object...params) {
@@ -145,6 +174,75 @@ public class TestActivity extends Activity {
             case 6:
                 test_black_rs2(MAX_ITER);
                 break;
+            case 7:
+                test_resume_java2(FULL_X_START, FULL_Y_START, FULL_STEP, "Full", MAX_ITER);
+                break;
+            case 8:
+                test_resume_java2(BLACK_X_START, BLACK_Y_START, BLACK_STEP, "Black", MAX_ITER);
+                break;
+            case 9:
+                test_parent_java2(FULL_X_START, FULL_Y_START, FULL_STEP, "Full", MAX_ITER);
+                break;
+            case 10:
+                test_parent_java2(BLACK_X_START, BLACK_Y_START, BLACK_STEP, "Black", MAX_ITER);
+                break;
+            case 11:
+                test_unroll_java2(FULL_X_START, FULL_Y_START, FULL_STEP, "Full", MAX_ITER);
+                break;
+            case 12:
+                test_unroll_java2(BLACK_X_START, BLACK_Y_START, BLACK_STEP, "Black", MAX_ITER);
+                break;
+            case 13:
+                test_unroll_rs2(FULL_X_START, FULL_Y_START, FULL_STEP, "Full", MAX_ITER);
+                break;
+            case 14:
+                test_unroll_rs2(BLACK_X_START, BLACK_Y_START, BLACK_STEP, "Black", MAX_ITER);
+                break;
+            case 15:
+                test_full_smooth2(MAX_ITER);
+                break;
+            case 16:
+                test_distance_java2(FULL_X_START, FULL_Y_START, FULL_STEP, "Full", MAX_ITER);
+                break;
+            case 17:
+                test_distance_java2(BLACK_X_START, BLACK_Y_START, BLACK_STEP, "Black", MAX_ITER);
+                break;
+            case 18:
+                test_guess_java2(MAX_ITER);
+                break;
+            case 19:
+                test_full_julia(2, MAX_ITER);
+                break;
+            case 20:
+                test_full_julia(3, MAX_ITER);
+                break;
+            case 21:
+                test_full_julia(4, MAX_ITER);
+                break;
+            case 22:
+                test_formula_dispatch(MAX_ITER);
+                break;
+            case 23:
+                test_full_formulas(MAX_ITER);
+                break;
+            case 24:
+                test_buddhabrot(1);
+                break;
+            case 25:
+                test_buddhabrot(Runtime.getRuntime().availableProcessors());
+                break;
+            case 26:
+                test_parallel2(FULL_X_START, FULL_Y_START, FULL_STEP, "Full", MAX_ITER);
+                break;
+            case 27:
+                test_parallel2(BLACK_X_START, BLACK_Y_START, BLACK_STEP, "Black", MAX_ITER);
+                break;
+            case 28:
+                test_screen(false);
+                break;
+            case 29:
+                test_screen(true);
+                break;
             default:
                 mState = 0; // loop
                 writeResult("-------");
@@ -235,6 +333,269 @@ public class TestActivity extends Activity {
             writeResult("Black RS 2 [%dx%dx%d] = %.2f ms/call", SIZE, SIZE, max_iter, (double)end/N);
         }
 
+        /**
+         * Compares computing a block at 2*max_iter from scratch against
+         * resuming it from a state computed at max_iter.
+         */
+        private void test_resume_java2(float x_start, float y_start, float step,
+                String name, int max_iter) {
+            final int N=10;
+            long full = 0;
+            long resume = 0;
+            int mismatch = 0;
+            for (int k = 0; k < N; ++k) {
+                long start = System.currentTimeMillis();
+                JavaMandel.mandelbrot2_java(
+                        x_start, step,
+                        y_start, step,
+                        SIZE, SIZE,
+                        2 * max_iter, mResults2.length, mResults2);
+                long end = System.currentTimeMillis();
+                full += end - start;
+
+                JavaMandel.mandelbrot2_state(
+                        x_start, step,
+                        y_start, step,
+                        SIZE, SIZE,
+                        max_iter, mIterState);
+
+                start = System.currentTimeMillis();
+                JavaMandel.mandelbrot2_resume(2 * max_iter, mIterState);
+                end = System.currentTimeMillis();
+                resume += end - start;
+            }
+
+            int[] iters = mIterState.getIters();
+            for (int k = 0; k < mResults2.length; ++k) {
+                if (iters[k] != mResults2[k]) mismatch++;
+            }
+
+            writeResult("%s Java 2 [%dx%dx%d] = %.2f ms/call, resumed from %d = %.2f ms/call, %d mismatches",
+                    name, SIZE, SIZE, 2 * max_iter, (double)full/N,
+                    max_iter, (double)resume/N, mismatch);
+        }
+
+        /**
+         * Compares computing a block from scratch against reusing the samples of
+         * its parent block, which has a step twice larger and a lower max_iter.
+         */
+        private void test_parent_java2(float x_start, float y_start, float step,
+                String name, int max_iter) {
+            JavaMandel.mandelbrot2_state(
+                    x_start, 2 * step,
+                    y_start, 2 * step,
+                    SIZE, SIZE,
+                    max_iter / 2, mParentState);
+
+            final int N=10;
+            long full = 0;
+            long reuse = 0;
+            int reused = 0;
+            int mismatch = 0;
+            for (int k = 0; k < N; ++k) {
+                long start = System.currentTimeMillis();
+                JavaMandel.mandelbrot2_java(
+                        x_start, step,
+                        y_start, step,
+                        SIZE, SIZE,
+                        max_iter, mResults2.length, mResults2);
+                long end = System.currentTimeMillis();
+                full += end - start;
+
+                start = System.currentTimeMillis();
+                reused = JavaMandel.mandelbrot2_parent(
+                        x_start, step,
+                        y_start, step,
+                        SIZE, SIZE,
+                        max_iter, mIterState,
+                        mParentState, 0, 0,
+                        mSlots);
+                end = System.currentTimeMillis();
+                reuse += end - start;
+            }
+
+            int[] iters = mIterState.getIters();
+            for (int k = 0; k < mResults2.length; ++k) {
+                if (iters[k] != mResults2[k]) mismatch++;
+            }
+
+            writeResult("%s Java 2 [%dx%dx%d] = %.2f ms/call, from parent = %.2f ms/call (%d reused), %d mismatches",
+                    name, SIZE, SIZE, max_iter, (double)full/N,
+                    (double)reuse/N, reused, mismatch);
+        }
+
+        private void test_unroll_java2(float x_start, float y_start, float step,
+                String name, int max_iter) {
+            JavaMandel.mandelbrot2_java(
+                    x_start, step,
+                    y_start, step,
+                    SIZE, SIZE,
+                    max_iter, mExpected.length, mExpected);
+
+            long start = System.currentTimeMillis();
+
+            final int N=10;
+            for (int k = 0; k < N; ++k) {
+                JavaMandel.mandelbrot2_unroll_java(
+                        x_start, step,
+                        y_start, step,
+                        SIZE, SIZE,
+                        max_iter, mResults2.length, mResults2);
+            }
+
+            long end = System.currentTimeMillis();
+            end -= start;
+
+            writeResult("%s Java 2 Unroll [%dx%dx%d] = %.2f ms/call, %d mismatches",
+                    name, SIZE, SIZE, max_iter, (double)end/N,
+                    countMismatches(mResults2, mExpected));
+        }
+
+        private void test_unroll_rs2(float x_start, float y_start, float step,
+                String name, int max_iter) {
+            if (!JavaMandel.hasRs()) {
+                writeResult("Rs Mandel 2 Unroll not supported");
+                return;
+            }
+
+            Mandel_RS.mandelbrot2_RS(
+                    x_start, step,
+                    y_start, step,
+                    SIZE, SIZE,
+                    max_iter, mExpected.length, mExpected);
+
+            long start = System.currentTimeMillis();
+
+            final int N=10;
+            for (int k = 0; k < N; ++k) {
+                Mandel_RS.mandelbrot2_RS_unroll(
+                        x_start, step,
+                        y_start, step,
+                        SIZE, SIZE,
+                        max_iter, mResults2.length, mResults2);
+            }
+
+            long end = System.currentTimeMillis();
+            end -= start;
+
+            writeResult("%s RS 2 Unroll [%dx%dx%d] = %.2f ms/call, %d mismatches",
+                    name, SIZE, SIZE, max_iter, (double)end/N,
+                    countMismatches(mResults2, mExpected));
+        }
+
+        /** Number of pixels whose counts differ in the 2 SIZE*SIZE results. */
+        private int countMismatches(int[] results, int[] expected) {
+            int mismatch = 0;
+            for (int k = 0; k < SIZE*SIZE; ++k) {
+                if (results[k] != expected[k]) mismatch++;
+            }
+            return mismatch;
+        }
+
+        private void test_full_smooth2(int max_iter) {
+            long start = System.currentTimeMillis();
+
+            final int N=10;
+            for (int k = 0; k < N; ++k) {
+                JavaMandel.mandelbrot2_smooth(
+                        FULL_X_START, FULL_STEP,
+                        FULL_Y_START, FULL_STEP,
+                        SIZE, SIZE,
+                        max_iter, mResults2.length, mResults2, mSmooth);
+            }
+
+            long end = System.currentTimeMillis();
+            end -= start;
+
+            writeResult("Full Java 2 Smooth [%dx%dx%d] = %.2f ms/call", SIZE, SIZE, max_iter, (double)end/N);
+        }
+
+        /**
+         * Runs the distance estimation renderer and reports the pixels it
+         * iterated and skipped, and how many differ from the brute-force kernel.
+         */
+        private void test_distance_java2(float x_start, float y_start, float step,
+                String name, int max_iter) {
+            int[] stats = new int[2];
+            int[] results = new int[SIZE*SIZE];
+
+            long start = System.currentTimeMillis();
+
+            final int N=10;
+            for (int k = 0; k < N; ++k) {
+                JavaMandel.mandelbrot2_distance(
+                        x_start, step,
+                        y_start, step,
+                        SIZE, SIZE,
+                        max_iter, results.length, results, stats);
+            }
+
+            long end = System.currentTimeMillis();
+            end -= start;
+
+            JavaMandel.mandelbrot2_java(
+                    x_start, step,
+                    y_start, step,
+                    SIZE, SIZE,
+                    max_iter, mResults2.length, mResults2);
+            int mismatch = 0;
+            for (int k = 0; k < mResults2.length; ++k) {
+                if (results[k] != mResults2[k]) mismatch++;
+            }
+
+            writeResult("%s Java 2 Distance [%dx%dx%d] = %.2f ms/call, %d iterated, %d skipped, %d mismatches",
+                    name, SIZE, SIZE, max_iter, (double)end/N, stats[0], stats[1], mismatch);
+        }
+
+        /**
+         * Verification of the solid-guessing renderer: for each point of interest,
+         * compares its speed and results against the brute-force kernel and
+         * reports the error rate.
+         */
+        private void test_guess_java2(int max_iter) {
+            float[] places = TileContext.getInterestingPlaces();
+            int[] stats = new int[2];
+            int[] results = new int[SIZE*SIZE];
+            final float step = POI_STEP;
+
+            for (int p = 0; p + 1 < places.length; p += 2) {
+                float x_start = places[p] - step * SIZE / 2;
+                float y_start = places[p + 1] - step * SIZE / 2;
+
+                final int N=10;
+                long start = System.currentTimeMillis();
+                for (int k = 0; k < N; ++k) {
+                    JavaMandel.mandelbrot2_java(
+                            x_start, step,
+                            y_start, step,
+                            SIZE, SIZE,
+                            max_iter, mResults2.length, mResults2);
+                }
+                long full = System.currentTimeMillis() - start;
+
+                start = System.currentTimeMillis();
+                for (int k = 0; k < N; ++k) {
+                    JavaMandel.mandelbrot2_guess(
+                            x_start, step,
+                            y_start, step,
+                            SIZE, SIZE,
+                            max_iter, results.length, results, stats);
+                }
+                long guess = System.currentTimeMillis() - start;
+
+                int errors = 0;
+                for (int k = 0; k < mResults2.length; ++k) {
+                    if (results[k] != mResults2[k]) errors++;
+                }
+
+                writeResult("POI %d Java 2 [%dx%dx%d] = %.2f ms/call, Guess = %.2f ms/call, %d iterated, %d guessed, error rate %.3f%%",
+                        p / 2, SIZE, SIZE, max_iter,
+                        (double)full/N, (double)guess/N,
+                        stats[0], stats[1],
+                        100.0 * errors / mResults2.length);
+            }
+        }
+
         private void test_full_java3(int max_iter) {
             long start = System.currentTimeMillis();
 
@@ -273,6 +634,274 @@ public class TestActivity extends Activity {
             writeResult("Full Java 4 [%dx%dx%d] = %.2f ms/call", SIZE, SIZE, max_iter, (double)end/N);
         }
 
+        /**
+         * Compares the z^3+c formula called through the {@link Formula} interface,
+         * once per block like Tile does, with the same escape loop written out
+         * inline. z^2+c isn't used: its formula just calls mandelbrot2_java.
+         */
+        private void test_formula_dispatch(int max_iter) {
+            // go through the interface like Tile does
+            Formula formula = Formulas.get("z3");
+            final int N=10;
+
+            long start = System.currentTimeMillis();
+            for (int k = 0; k < N; ++k) {
+                multibrot3_inline(
+                        FULL_X_START, FULL_STEP,
+                        FULL_Y_START, FULL_STEP,
+                        SIZE, SIZE,
+                        max_iter, mExpected);
+            }
+            long inline = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            for (int k = 0; k < N; ++k) {
+                formula.compute(
+                        FULL_X_START, FULL_STEP,
+                        FULL_Y_START, FULL_STEP,
+                        SIZE, SIZE,
+                        max_iter, mResults2.length, mResults2);
+            }
+            long plugin = System.currentTimeMillis() - start;
+
+            writeResult("Formula z3 [%dx%dx%d] = %.2f ms/call (inline %.2f ms/call), %d mismatches",
+                    SIZE, SIZE, max_iter, (double)plugin/N, (double)inline/N,
+                    countMismatches(mResults2, mExpected));
+        }
+
+        /** The z^3+c escape loop, same as the Formulas.MULTIBROT3 kernel. */
+        private void multibrot3_inline(
+                double x_start, double x_step,
+                double y_start, double y_step,
+                int sx, int sy,
+                int max_iter,
+                int[] result) {
+            double x_begin = x_start;
+            for(int j = 0, k = 0; j < sy; ++j, y_start += y_step) {
+                x_start = x_begin;
+                for(int i = 0; i < sx; ++i, ++k, x_start += x_step) {
+                    double x = x_start;
+                    double y = y_start;
+                    double x2 = x * x;
+                    double y2 = y * y;
+                    int iter = 0;
+                    while (x2 + y2 < 4 && iter < max_iter) {
+                        double xt = x * (x2 - 3 * y2) + x_start;
+                        y = y * (3 * x2 - y2) + y_start;
+                        x = xt;
+                        x2 = xt * xt;
+                        y2 = y * y;
+                        ++iter;
+                    }
+                    result[k] = iter;
+                }
+            }
+        }
+
+        /** Every other formula kernel over the full view. */
+        private void test_full_formulas(int max_iter) {
+            for (String name : new String[] { "z3", "z4", "z5", "burning_ship", "tricorn" }) {
+                Formula formula = Formulas.get(name);
+                long start = System.currentTimeMillis();
+
+                final int N=10;
+                for (int k = 0; k < N; ++k) {
+                    formula.compute(
+                            FULL_X_START, FULL_STEP,
+                            FULL_Y_START, FULL_STEP,
+                            SIZE, SIZE,
+                            max_iter, mResults2.length, mResults2);
+                }
+
+                long end = System.currentTimeMillis();
+                end -= start;
+
+                writeResult("Formula %s [%dx%dx%d] = %.2f ms/call", formula.toString(),
+                        SIZE, SIZE, max_iter, (double)end/N);
+            }
+        }
+
+        /**
+         * Single block latency with the parallel backend. Also reports how many
+         * threads the adaptive split picked for that block, and how many pixels
+         * differ from mandelbrot2_java: MANDEL_ROOT computes x_start + x_step * x
+         * where mandelbrot2_java accumulates the steps, so a few pixels on the
+         * edges of the bands may round differently.
+         */
+        private void test_parallel2(float x_start, float y_start, float step,
+                String name, int max_iter) {
+            Mandel_Java.Params p = new Mandel_Java.Params();
+            p.x_start = x_start;
+            p.x_step = step;
+            p.y_start = y_start;
+            p.y_step = step;
+            p.max_iter = max_iter;
+            int tasks = Mandel_Java.getNumTasks(
+                    Mandel_Java.estimateCost(Mandel_Java.MANDEL_ROOT, p, SIZE, SIZE));
+
+            JavaMandel.mandelbrot2_java(
+                    x_start, step,
+                    y_start, step,
+                    SIZE, SIZE,
+                    max_iter, mExpected.length, mExpected);
+
+            long start = System.currentTimeMillis();
+
+            final int N=10;
+            for (int k = 0; k < N; ++k) {
+                Mandel_Java.mandelbrot2_parallel(
+                        x_start, step,
+                        y_start, step,
+                        SIZE, SIZE,
+                        max_iter, mResults2.length, mResults2);
+            }
+
+            long end = System.currentTimeMillis();
+            end -= start;
+
+            writeResult("%s Java parallel %d/%d [%dx%dx%d] = %.2f ms/call, %d mismatches", name,
+                    tasks, Mandel_Java.getNumThreads(),
+                    SIZE, SIZE, max_iter, (double)end/N,
+                    countMismatches(mResults2, mExpected));
+        }
+
+        /**
+         * Time to complete a whole screen of tiles, the full view split in
+         * SCREEN_TILES x SCREEN_TILES tiles. Either one tile at a time, each one
+         * split across the cores, or as a single batch of tiles sorted by
+         * estimated cost, one tile per core at a time.
+         */
+        private void test_screen(boolean byCost) {
+            final int n = SCREEN_TILES * SCREEN_TILES;
+            final int ts = SIZE / SCREEN_TILES;
+            final float tstep = FULL_STEP * ts;
+            if (mScreen == null) mScreen = new int[n][ts * ts];
+
+            long start = System.currentTimeMillis();
+
+            final int N=10;
+            for (int k = 0; k < N; ++k) {
+                if (!byCost) {
+                    for (int t = 0; t < n; t++) {
+                        Mandel_Java.mandelbrot2_parallel(
+                                FULL_X_START + (t % SCREEN_TILES) * tstep, FULL_STEP,
+                                FULL_Y_START + (t / SCREEN_TILES) * tstep, FULL_STEP,
+                                ts, ts,
+                                MAX_ITER, ts * ts, mScreen[t]);
+                    }
+                } else {
+                    final long[] costs = new long[n];
+                    Integer[] order = new Integer[n];
+                    Mandel_Java.Params p = new Mandel_Java.Params();
+                    p.x_step = FULL_STEP;
+                    p.y_step = FULL_STEP;
+                    p.max_iter = MAX_ITER;
+                    for (int t = 0; t < n; t++) {
+                        p.x_start = FULL_X_START + (t % SCREEN_TILES) * tstep;
+                        p.y_start = FULL_Y_START + (t / SCREEN_TILES) * tstep;
+                        costs[t] = Mandel_Java.estimateCost(Mandel_Java.MANDEL_ROOT, p, ts, ts);
+                        order[t] = t;
+                    }
+                    Arrays.sort(order, new Comparator<Integer>() {
+                        public int compare(Integer t1, Integer t2) {
+                            long c1 = costs[t1];
+                            long c2 = costs[t2];
+                            return c1 > c2 ? -1 : (c1 < c2 ? 1 : 0);
+                        }
+                    });
+
+                    Runnable[] jobs = new Runnable[n];
+                    for (int t = 0; t < n; t++) {
+                        final int tile = order[t];
+                        jobs[t] = new Runnable() {
+                            public void run() {
+                                mandelbrot2_java(
+                                    FULL_X_START + (tile % SCREEN_TILES) * tstep, FULL_STEP,
+                                    FULL_Y_START + (tile / SCREEN_TILES) * tstep, FULL_STEP,
+                                    ts, ts,
+                                    MAX_ITER, ts * ts, mScreen[tile]);
+                            }
+                        };
+                    }
+                    Mandel_Java.runAll(jobs);
+                }
+            }
+
+            long end = System.currentTimeMillis();
+            end -= start;
+
+            writeResult("Screen %dx%d tiles %s %d threads [%dx%dx%d] = %.2f ms/call",
+                    SCREEN_TILES, SCREEN_TILES,
+                    byCost ? "by cost" : "one by one",
+                    Mandel_Java.getNumThreads(),
+                    SIZE, SIZE, MAX_ITER, (double)end/N);
+        }
+
+        /**
+         * Buddhabrot density of the full view with that many worker threads.
+         * The sample count is fixed so the throughput should scale with the threads.
+         */
+        private void test_buddhabrot(int numThreads) {
+            final long samples = 1000000;
+            long start = System.currentTimeMillis();
+
+            Buddhabrot b = new Buddhabrot(
+                    FULL_X_START, FULL_STEP,
+                    FULL_Y_START, FULL_STEP,
+                    SIZE, SIZE,
+                    MAX_ITER,
+                    samples,
+                    numThreads);
+            b.start();
+            b.join();
+            b.merge(mResults2);
+
+            long end = System.currentTimeMillis();
+            end -= start;
+
+            writeResult("Buddhabrot %d threads [%dx%dx%d] = %.2f ksamples/s", numThreads,
+                    SIZE, SIZE, MAX_ITER, (double)samples / (end > 0 ? end : 1));
+        }
+
+        /** Julia kernel in double (2), fp16 (3) or fp32 (4) over the full view. */
+        private void test_full_julia(int version, int max_iter) {
+            long start = System.currentTimeMillis();
+
+            final int N=10;
+            for (int k = 0; k < N; ++k) {
+                if (version == 2) {
+                    JavaMandel.julia2_java(
+                            FULL_X_START, FULL_STEP,
+                            FULL_Y_START, FULL_STEP,
+                            SIZE, SIZE,
+                            JULIA_CX, JULIA_CY,
+                            max_iter, mResults2.length, mResults2);
+                } else if (version == 3) {
+                    JavaMandel.julia3_java(
+                            FULL_X_START, FULL_STEP,
+                            FULL_Y_START, FULL_STEP,
+                            SIZE, SIZE,
+                            JULIA_CX, JULIA_CY,
+                            (byte)(max_iter - 128),
+                            mResults3.length, mResults3);
+                } else {
+                    JavaMandel.julia4_java(
+                            FULL_X_START, FULL_STEP,
+                            FULL_Y_START, FULL_STEP,
+                            SIZE, SIZE,
+                            JULIA_CX, JULIA_CY,
+                            (byte)(max_iter - 128),
+                            mResults3.length, mResults3);
+                }
+            }
+
+            long end = System.currentTimeMillis();
+            end -= start;
+
+            writeResult("Full Julia %d [%dx%dx%d] = %.2f ms/call", version,
+                    SIZE, SIZE, max_iter, (double)end/N);
+        }
+
     }
 
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2008 (c) ralfoide gmail com, 2008
+ * Project: Mandelbrot
+ * License: GPL version 3 or any later version
+ */
+
+package com.alfray.mandelbrot2.tiles;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Color maps converting iteration counts to colors, keyed by palette and
+ * max_iter.
+ * <p/>
+ * A color map has max_iter+1 entries, the last one being the color of the
+ * pixels in the set. Tiles of different zoom levels use different max_iter
+ * (e.g. the previews of the lower level), and several tiles are computed at
+ * the same time, so the maps are built once and shared. They must not be
+ * modified once returned by {@link #get(int, int)}.
+ * <p/>
+ * At most MAX_ENTRIES maps are kept, the least recently used is dropped
+ * first. Accessed from any thread computing tiles.
+ */
+public class ColorMaps {
+
+    /** The blue to white gradient, the only palette so far. */
+    public static final int GRADIENT = 0;
+
+    private static final int MAX_ENTRIES = 16;
+
+    private static final Map<Long, int[]> sMaps =
+        new LinkedHashMap<Long, int[]>(MAX_ENTRIES, 0.75f, true /*accessOrder*/) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+
+    private ColorMaps() {
+    }
+
+    /** Returns the max_iter+1 colors of that palette. The array is shared, don't modify it. */
+    public static int[] get(int palette, int max_iter) {
+        Long key = Long.valueOf(((long) palette << 32) | (max_iter & 0xFFFFFFFFL));
+        synchronized (sMaps) {
+            int[] map = sMaps.get(key);
+            if (map != null) return map;
+        }
+
+        // built outside of the lock, two threads may build the same one.
+        // GRADIENT is the only palette so far.
+        int[] map = new int[max_iter + 1];
+        for (int i = 0; i <= max_iter; i++) {
+            map[i] = colorIndex(i, max_iter);
+        }
+        synchronized (sMaps) {
+            sMaps.put(key, map);
+        }
+        return map;
+    }
+
+    // We'll hack a quick fixed palette with a gradient.
+    // TODO Make palette customizable
+    // color is ARGB with A=FF
+    // we'll do B=0x80 => 0xFF
+    // and RG=0x00 => 0xFF
+    private static int colorIndex(int iter, int max_iter) {
+        float col_factor1 = 255.0f / max_iter;
+        float col_factor2 = 223.0f * 2 / max_iter; // 0xFF-0x20=xDF=255-32=223
+        int rg, b;
+        if (iter >= max_iter) {
+            rg = b = 0;
+        } else  {
+            rg = (int)(iter * col_factor1);
+            b  = (int)(0x20 + iter * col_factor2);
+        }
+        return 0xFF000000 | (rg << 16) | (rg << 8) | (b);
+    }
+}
@@ -10,48 +10,111 @@ package com.alfray.mandelbrot2.tiles;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 
+import com.alfray.mandelbrot2.Formula;
+import com.alfray.mandelbrot2.Fractal;
+import com.alfray.mandelbrot2.IterState;
 import com.alfray.mandelbrot2.JavaMandel;
 
 
 /**
  * A Mandelbrot tile, for a given zoomlevel and iteration level.
  * <p/>
+ * The tile can also render a Julia set, as described by its {@link Fractal}.
+ * The fractal is part of the tile identity but not of its hash key:
+ * TileContext keeps a different cache for each fractal.
+ * <p/>
  * Tiles are 128x128 pixels wide, their bitmap is thus 32KB in RGB 565.
  * <p/>
  * Tiles have two states: they can be "completed" (meaning they have been
  * computed) and they can have a bitmap. A tile can have a bitmap but not
  * be completed when this tile bitmap comes from a zoom approximation of the
  * previous level.
+ * <p/>
+ * Each tile has an estimated cost, in iterations, that TileThread uses to
+ * start the longest tiles first. It comes from the iteration counts of the
+ * parent tile quadrant when the parent has been computed, otherwise from a
+ * few probe pixels.
  */
 public class Tile {
 
     public final static int SIZE = 128;
 
     public final static Config BMP_CONFIG = Bitmap.Config.RGB_565;
+    /** Size in bytes of a tile bitmap, 2 bytes per pixel in RGB_565. */
+    public final static int BMP_BYTES = SIZE * SIZE * 2;
 
     private final static int FP8_1 = 128;
-    private final static int SERIAL_VERSION = 2;
+    private final static int SERIAL_VERSION = 3;
+    private final static int SERIAL_HEADER = 9;
+    /** The cost is probed on a PROBE_GRID x PROBE_GRID grid of pixels. */
+    private final static int PROBE_GRID = 8;
+
+    /**
+     * Temporary buffers used to compute a tile. There's one set per thread
+     * so that several tiles can be computed at the same time.
+     */
+    private static class Buffers {
+        final int[] block = new int[SIZE * SIZE];
+        final byte[] block3 = new byte[SIZE * SIZE];
+        final int[] color = new int[SIZE * SIZE];
+        final float[] smooth = new float[SIZE * SIZE];
+        final int[] line = new int[SIZE];
+        /** Scratch for JavaMandel.mandelbrot2_parent. */
+        final int[] slots = new int[SIZE * SIZE];
+        /** Allocated for a tile that turned out uniform, used by the next one. */
+        Bitmap spare;
+
+        Bitmap takeBitmap() {
+            Bitmap bmp = spare;
+            spare = null;
+            return bmp != null ? bmp : Bitmap.createBitmap(SIZE, SIZE, BMP_CONFIG);
+        }
+    }
 
-    private static int[] sTempBlock = new int[SIZE * SIZE];
-    private static byte[] sTempBlock3 = new byte[SIZE * SIZE];
-    private static int[] sTempColor = new int[SIZE * SIZE];
-    private static int[] sTempLine = new int[SIZE];
-    private static int[] sColorMap = null;
+    private static final ThreadLocal<Buffers> sBuffers = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
 
     private final int mZoomLevel;
     private final int mI;
     private final int mJ;
-    private final int mHashKey;
+    private final long mHashKey;
+    private final Fractal mFractal;
 
     private Bitmap mBitmap;
+    /** True if mBitmap is shared with other tiles, see {@link UniformBitmaps}. */
+    private boolean mSharedBitmap;
     @SuppressWarnings("unused") private int mNativePtr;
     private final int mMaxIter;
+    private IterState mIterState;
+    private Tile mParentTile;
 
     private boolean mCompleted;
     private boolean mInMemory;
+    private int mMemoryCharge;
+
+    /** View epoch of the last request for this tile, see TileContext. */
+    private volatile int mEpoch = -1;
+
+    /** Estimated cost in iterations, -1 if not estimated yet. */
+    private volatile long mCost = -1;
+    /**
+     * Iteration counts of the computed tile, for each of its 4 quadrants:
+     * sum of the escaped pixels iterations, then number of pixels in the set.
+     * Used to estimate the cost of the 4 tiles of the next zoom level.
+     */
+    private long[] mQuadStats;
 
-    public Tile(int key, int zoomLevel, int i, int j, int maxIter) {
+    public Tile(long key, int zoomLevel, int i, int j, int maxIter) {
+        this(key, zoomLevel, i, j, maxIter, Fractal.MANDELBROT_SET);
+    }
+
+    public Tile(long key, int zoomLevel, int i, int j, int maxIter, Fractal fractal) {
         mHashKey = key;
+        mFractal = fractal;
         mZoomLevel = zoomLevel;
         mMaxIter = maxIter;
         mI = i;
@@ -64,20 +127,35 @@ public class Tile {
         this(computeKey(i, j), zoomLevel, i, j, maxIter);
     }
 
+    /**
+     * Creates a tile that replaces a previous one with a higher maxIter.
+     * If the previous tile kept its {@link IterState}, the state is transferred
+     * and compute() will only run the extra iterations of its non-escaped pixels.
+     */
+    public Tile(Tile previous, int maxIter) {
+        this(previous.mHashKey, previous.mZoomLevel, previous.mI, previous.mJ, maxIter,
+                previous.mFractal);
+        if (previous.mCompleted && previous.mIterState != null) {
+            mIterState = previous.mIterState;
+            previous.mIterState = null;
+        }
+    }
+
     public Tile(int[] serialized) {
-        assert serialized.length >= 8;
+        assert serialized.length >= SERIAL_HEADER;
         assert serialized[0] == SERIAL_VERSION;
         assert serialized[1] == SIZE;
 
-        mHashKey = serialized[2];
-        mZoomLevel = serialized[3];
-        mMaxIter = serialized[4];
-        mI = serialized[5];
-        mJ = serialized[6];
-        mCompleted = (serialized[7] == 1);
+        mHashKey = ((long) serialized[3] << 32) | (serialized[2] & 0xFFFFFFFFL);
+        mFractal = Fractal.MANDELBROT_SET;
+        mZoomLevel = serialized[4];
+        mMaxIter = serialized[5];
+        mI = serialized[6];
+        mJ = serialized[7];
+        mCompleted = (serialized[8] == 1);
 
-        if (serialized.length > 8) {
-            mBitmap = Bitmap.createBitmap(serialized, 8, SIZE, SIZE, SIZE, BMP_CONFIG);
+        if (serialized.length > SERIAL_HEADER) {
+            mBitmap = Bitmap.createBitmap(serialized, SERIAL_HEADER, SIZE, SIZE, SIZE, BMP_CONFIG);
         }
     }
 
@@ -85,16 +163,17 @@ public class Tile {
     public int[] serialize() {
         Bitmap bmp = mBitmap;
         int nn = SIZE * SIZE;
-        int[] result = new int[8 + (bmp == null ? 0 : nn)];
+        int[] result = new int[SERIAL_HEADER + (bmp == null ? 0 : nn)];
         result[0] = SERIAL_VERSION;
         result[1] = SIZE;
-        result[2] = mHashKey;
-        result[3] = mZoomLevel;
-        result[4] = mMaxIter;
-        result[5] = mI;
-        result[6] = mJ;
-        result[7] = mCompleted ? 1 : 0;
-        if (bmp != null) bmp.getPixels(result, 8, SIZE, 0, 0, SIZE, SIZE);
+        result[2] = (int) mHashKey;
+        result[3] = (int) (mHashKey >>> 32);
+        result[4] = mZoomLevel;
+        result[5] = mMaxIter;
+        result[6] = mI;
+        result[7] = mJ;
+        result[8] = mCompleted ? 1 : 0;
+        if (bmp != null) bmp.getPixels(result, SERIAL_HEADER, SIZE, 0, 0, SIZE, SIZE);
         return result;
     }
 
@@ -102,48 +181,163 @@ public class Tile {
         return mZoomLevel;
     }
 
+    public int getMaxIter() {
+        return mMaxIter;
+    }
+
+    public Fractal getFractal() {
+        return mFractal;
+    }
+
+    /**
+     * Sets the tile from the lower zoom level that covers this one.
+     * If it has been computed with its {@link IterState}, compute() reuses its
+     * samples for a quarter of this tile's pixels. The reference is dropped
+     * once this tile is computed.
+     */
+    public void setParentTile(Tile parent) {
+        mParentTile = parent;
+    }
+
+    /** Stamps the tile with the view epoch it's requested for. Runs from the UI thread. */
+    public void setEpoch(int epoch) {
+        mEpoch = epoch;
+    }
+
+    /** The view epoch this tile was last requested for. */
+    public int getEpoch() {
+        return mEpoch;
+    }
+
+    /** True if this tile kept its per-pixel iteration state and can be resumed. */
+    public boolean hasIterState() {
+        return mIterState != null;
+    }
+
+    /**
+     * Estimates the cost of this tile from its parent tile, the one of the lower
+     * zoom level that covers it. Does nothing if the parent hasn't been computed.
+     * <p/>
+     * Escaped pixels take about the same number of iterations at the next level,
+     * pixels in the set take max_iter. Each parent pixel of the quadrant covers
+     * 2x2 pixels of this tile.
+     * <p/>
+     * Runs from the UI thread, it's cheap.
+     */
+    public void estimateCost(Tile parent) {
+        if (parent == null || mCompleted) return;
+        long[] stats = parent.mQuadStats;
+        if (stats == null ||
+                !parent.mFractal.equals(mFractal) ||
+                parent.mI != (mI >> 1) ||
+                parent.mJ != (mJ >> 1)) {
+            return;
+        }
+        int q = 2 * (((mJ & 1) << 1) | (mI & 1));
+        mCost = 4 * (stats[q] + stats[q + 1] * mMaxIter) + SIZE * SIZE;
+    }
+
+    /**
+     * Returns the estimated cost of this tile in iterations. If it couldn't be
+     * estimated from the parent tile, iterates a grid of probe pixels first.
+     * <p/>
+     * Runs from the TileThread.
+     */
+    public long getEstimatedCost() {
+        if (mCompleted) return 0;
+        if (mCost < 0) {
+            mCost = probeCost();
+        }
+        return mCost;
+    }
+
+    private long probeCost() {
+        int zoomFp8 = getZoomFp8(mZoomLevel);
+        double inv_zoom = (double)FP8_1 / zoomFp8;
+        double step = inv_zoom / SIZE;
+        double probe_step = step * SIZE / PROBE_GRID;
+        double x = mI * inv_zoom + probe_step / 2;
+        double y = mJ * inv_zoom + probe_step / 2;
+
+        final int g = PROBE_GRID;
+        final int[] line = sBuffers.get().line;
+        long sum = 0;
+        for (int j = 0; j < g; j++, y += probe_step) {
+            if (mFractal.isJulia()) {
+                JavaMandel.julia2(x, probe_step, y, 0, g, 1,
+                        mFractal.getCx(), mFractal.getCy(), mMaxIter, g, line);
+            } else if (mFractal.usesFormula()) {
+                mFractal.getFormula().compute(x, probe_step, y, 0, g, 1, mMaxIter, g, line);
+            } else {
+                JavaMandel.mandelbrot2_line(x, probe_step, y, g, mMaxIter, line, 0);
+            }
+            for (int i = 0; i < g; i++) {
+                sum += line[i] + 1;
+            }
+        }
+        return sum * SIZE * SIZE / (g * g);
+    }
+
     /**
      * Computes hash key with this assumptions:
-     * - i..j meaningful 15 bits + sign bit
+     * - i..j are any int, each one gets 31 bits + sign bit
      * - neither maxIter nor zoom level are considered in the hash.
      *
-     * TileContext keeps a different cache for each zoom level, and maxIter is
+     * TileMap keys the tiles by zoom level and hash key, and maxIter is
      * linked to the zoom level, so neither need to be hashed here.
      *
-     * The sign bit for i is in bit 15. The sign bit for j is in bit 31 (MSB).
+     * The sign bit for i is in bit 31. The sign bit for j is in bit 63 (MSB).
      * If i or j is negative, we count it from "-0" to "-N" (instead of -1..-N).
-     * This way, to get the "mirror key" in j we just need to xor bit 31.
+     * This way, to get the "mirror key" in j we just need to xor bit 63.
+     * <p/>
+     * The whole i/j range fits, so tiles never alias at deep zoom levels.
      */
-    public static int computeKey(int i, int j) {
-        int h = 0;
+    public static long computeKey(int i, int j) {
+        long h = 0;
         if (j < 0) {
-            h |= 0x80000000;
+            h |= 0x8000000000000000L;
             j = -j - 1;
         }
         if (i < 0) {
-            h |= 0x00008000;
+            h |= 0x0000000080000000L;
             i = -i - 1;
         }
-        h |= (i & 0x07FFF) | ((j & 0x7FFF) << 16);
+        h |= (i & 0x7FFFFFFFL) | ((j & 0x7FFFFFFFL) << 32);
         return h;
     }
 
-    /** Key for mirror in j */
-    public int computeMirrorKey() {
-        return mHashKey ^ 0x80000000;
+    /** The hash key, see {@link #computeKey(int, int)}. */
+    public long getKey() {
+        return mHashKey;
+    }
+
+    /**
+     * Key of the mirror tile: mirror in j for the Mandelbrot set,
+     * mirror in both i and j (around the origin) for a Julia set.
+     */
+    public long computeMirrorKey() {
+        if (mFractal.hasPointSymmetry()) {
+            return mHashKey ^ 0x8000000080000000L;
+        }
+        return mHashKey ^ 0x8000000000000000L;
     }
 
     /**
      * Key for a lower zoom level, i.e. the immediate level "zoomed out" from this one,
      * thus i/j shifted right by 1 in the hash key, preserving the bit signs.
      */
-    public int computeLowerLevelKey() {
-        return (mHashKey & 0x80008000) | ((mHashKey & 0x7FFE7FFE) >> 1);
+    public long computeLowerLevelKey() {
+        return computeLowerLevelKey(mHashKey);
+    }
+
+    /** Same as {@link #computeLowerLevelKey()} for any key. */
+    public static long computeLowerLevelKey(long key) {
+        return (key & 0x8000000080000000L) | ((key & 0x7FFFFFFE7FFFFFFEL) >>> 1);
     }
 
     @Override
     public int hashCode() {
-        return mHashKey;
+        return (int) (mHashKey ^ (mHashKey >>> 32));
     }
 
     @Override
@@ -153,7 +347,7 @@ public class Tile {
 
     @Override
     public String toString() {
-        return String.format("%08x", mHashKey);
+        return String.format("%016x", mHashKey);
     }
 
     public void dispose() {
@@ -176,7 +370,9 @@ public class Tile {
      */
     public Bitmap reclaimBitmap() {
         Bitmap b = mBitmap;
+        releaseSharedBitmap();
         mBitmap = null;
+        mIterState = null;
         mCompleted = false;
         return b;
     }
@@ -191,6 +387,34 @@ public class Tile {
         return mInMemory;
     }
 
+    /**
+     * Approximate memory held by this tile, in bytes: its own bitmap (a shared
+     * one doesn't count) and its iteration state if it kept one.
+     */
+    public int getMemorySize() {
+        int n = (mBitmap != null && !mSharedBitmap) ? BMP_BYTES : 0;
+        IterState state = mIterState;
+        if (state != null) n += state.getMemorySize();
+        return n;
+    }
+
+    /** Used by TileThread to remember what this tile was charged in the memory budget. */
+    public void setMemoryCharge(int bytes) {
+        mMemoryCharge = bytes;
+    }
+
+    public int getMemoryCharge() {
+        return mMemoryCharge;
+    }
+
+    /**
+     * True if the bitmap is the shared one of a uniform tile. It must not be
+     * modified and it isn't charged to this tile in the TileThread memory list.
+     */
+    public boolean hasSharedBitmap() {
+        return mSharedBitmap;
+    }
+
     public int getVirtualX() {
         return mI * SIZE;
     }
@@ -216,17 +440,21 @@ public class Tile {
     }
 
     /**
-     * Runs from the TileThread
+     * Runs from the TileThread, or from the Mandel_Java pool threads when
+     * the TileThread computes a batch of tiles.
      *
-     * To avoid expensive lock, we want to ensure this runs only from the
-     * tile thread.
+     * To avoid expensive lock, we want to ensure a given tile is only computed
+     * by one thread at a time.
      */
     public void compute() {
-        if (!mCompleted) {
+        if (!mCompleted && !mFractal.isBuddhabrot()) {
+            // Temp arrays are per thread, several tiles can be computed at once.
+            final Buffers b = sBuffers.get();
+
             // allocate the memory first... if it fails, we want the
             // caller to be able to free memory and retry before doing
             // the expensive computations.
-            Bitmap bmp = Bitmap.createBitmap(SIZE, SIZE, BMP_CONFIG);
+            Bitmap bmp = b.takeBitmap();
 
             int zoomFp8 = getZoomFp8(mZoomLevel);
             double inv_zoom = (double)FP8_1 / zoomFp8;
@@ -234,24 +462,134 @@ public class Tile {
             double y = mJ * inv_zoom;
             double step = inv_zoom / SIZE;
 
+            // looked up once, shared by all the tiles of the same max_iter
+            final int[] colorMap = ColorMaps.get(ColorMaps.GRADIENT, mMaxIter);
 
-            // Note: currently runs only the single TileThread
-            // so it's ok to use static arrays. But it's still
-            // very ugly.
+            final int n = b.block.length;
+            final boolean julia = mFractal.isJulia();
+            final boolean formula = mFractal.usesFormula();
 
-            createColorMap(mMaxIter); // ugly...
+            boolean done = false;
+            boolean smooth = false;
+            int[] iters = null;
+
+            // Whole-tile interior check using the edges published by the
+            // neighbours: a ring of pixels in the set only encloses the set.
+            TileEdges edges = TileEdges.getInstance();
+            boolean interior = edges.accepts(this) &&
+                    edges.isSurroundedBy(this, mMaxIter);
+
+            if (interior) {
+                // nothing to compute, there's no state to keep either
+                mIterState = null;
+
+            } else if (formula) {
+                // the formula is picked once here, its kernel runs the whole tile
+                mFractal.getFormula().compute(
+                        x, step,
+                        y, step,
+                        SIZE, SIZE,
+                        mMaxIter,
+                        n, b.block);
+                iters = b.block;
+
+            } else if (julia) {
+                final double cx = mFractal.getCx();
+                final double cy = mFractal.getCy();
+                if (!JavaMandel.useRs() && mMaxIter < 256) {
+                    done = JavaMandel.julia3(
+                            x, step,
+                            y, step,
+                            SIZE, SIZE,
+                            cx, cy,
+                            (byte) (mMaxIter - 128),
+                            n, b.block3);
 
-            final int n = sTempBlock.length;
+                    if (!done) {
+                        done = JavaMandel.julia4(
+                            x, step,
+                            y, step,
+                            SIZE, SIZE,
+                            cx, cy,
+                            (byte) (mMaxIter - 128),
+                            n, b.block3);
+                    }
+                }
+                if (!done) {
+                    JavaMandel.julia2(
+                            x, step,
+                            y, step,
+                            SIZE, SIZE,
+                            cx, cy,
+                            mMaxIter,
+                            n, b.block);
+                    iters = b.block;
+                }
 
-            boolean done = false;
+            } else if (mIterState != null && mIterState.getMaxIter() < mMaxIter) {
+                // only continue the pixels that had not escaped yet
+                JavaMandel.mandelbrot2_resume(mMaxIter, mIterState);
+                iters = mIterState.getIters();
+
+            // at most one of the renderer prefs below is on, see JavaMandel.prefsChanged()
+            } else if (JavaMandel.keepIterState()) {
+                if (mIterState == null) mIterState = new IterState();
+                IterState parent = getParentIterState();
+                if (parent != null) {
+                    final int SZ2 = SIZE / 2;
+                    JavaMandel.mandelbrot2_parent(
+                            x, step,
+                            y, step,
+                            SIZE, SIZE,
+                            mMaxIter,
+                            mIterState,
+                            parent, (mI & 1) * SZ2, (mJ & 1) * SZ2,
+                            b.slots);
+                } else {
+                    JavaMandel.mandelbrot2_state(
+                            x, step,
+                            y, step,
+                            SIZE, SIZE,
+                            mMaxIter,
+                            mIterState);
+                }
+                iters = mIterState.getIters();
+
+            } else if (JavaMandel.smoothColors()) {
+                JavaMandel.mandelbrot2_smooth(
+                        x, step,
+                        y, step,
+                        SIZE, SIZE,
+                        mMaxIter,
+                        n, b.block, b.smooth);
+                smooth = true;
+
+            } else if (JavaMandel.distanceEstimation()) {
+                JavaMandel.mandelbrot2_distance(
+                        x, step,
+                        y, step,
+                        SIZE, SIZE,
+                        mMaxIter,
+                        n, b.block, null /*stats*/);
+                iters = b.block;
+
+            } else if (JavaMandel.solidGuessing()) {
+                JavaMandel.mandelbrot2_guess(
+                        x, step,
+                        y, step,
+                        SIZE, SIZE,
+                        mMaxIter,
+                        n, b.block, null /*stats*/);
+                iters = b.block;
 
-            if (!JavaMandel.useRs() && mMaxIter < 256) {
+            } else if (!JavaMandel.useRs() && !JavaMandel.useParallel() && mMaxIter < 256) {
+                // on multi-core, mandelbrot2 uses all the cores and beats fp16/fp32
                 done = JavaMandel.mandelbrot3(
                         x, step,
                         y, step,
                         SIZE, SIZE,
                         (byte) (mMaxIter - 128),
-                        n, sTempBlock3);
+                        n, b.block3);
 
                 if (!done) {
                     done = JavaMandel.mandelbrot4(
@@ -259,101 +597,378 @@ public class Tile {
                         y, step,
                         SIZE, SIZE,
                         (byte) (mMaxIter - 128),
-                        n, sTempBlock3);
+                        n, b.block3);
                 }
             }
 
-            if (done) {
+            if (interior) {
+                final int color = colorMap[mMaxIter];
+                for (int k = 0; k < n; ++k) {
+                    b.color[k] = color;
+                }
+                edges.publishUniform(this, mMaxIter);
+                mQuadStats = new long[8];
+                for (int q = 1; q < 8; q += 2) {
+                    mQuadStats[q] = n / 4;
+                }
+            } else if (iters != null) {
+                for (int k = 0; k < n; ++k) {
+                    b.color[k] = colorMap[iters[k]];
+                }
+                edges.publish(this, iters);
+                recordQuadStats(iters);
+            } else if (smooth) {
+                for (int k = 0; k < n; ++k) {
+                    b.color[k] = smoothColor(colorMap, b.smooth[k]);
+                }
+                edges.publish(this, b.block);
+                recordQuadStats(b.block);
+            } else if (done) {
                 for (int k = 0; k < n; ++k) {
-                    sTempColor[k] = sColorMap[(int)sTempBlock3[k] + 128];
+                    b.color[k] = colorMap[(int)b.block3[k] + 128];
+                    b.block[k] = (int)b.block3[k] + 128;
                 }
+                edges.publish(this, b.block3);
+                recordQuadStats(b.block);
             } else {
                 JavaMandel.mandelbrot2(
                             x, step,
                             y, step,
                             SIZE, SIZE,
                             mMaxIter,
-                            n, sTempBlock);
+                            n, b.block);
 
                 for (int k = 0; k < n; ++k) {
-                    sTempColor[k] = sColorMap[sTempBlock[k]];
+                    b.color[k] = colorMap[b.block[k]];
                 }
+                edges.publish(this, b.block);
+                recordQuadStats(b.block);
             }
 
-            bmp.setPixels(sTempColor, 0, SIZE, 0, 0, SIZE, SIZE);
-            mBitmap = bmp;
+            setColors(b, b.color, bmp);
+            if (mSharedBitmap && mIterState != null && mIterState.getNumActive() == 0) {
+                // uniform and all escaped: a higher max_iter would only change
+                // its color, not worth 16 KB of iteration counts
+                mIterState = null;
+            }
+            mParentTile = null;
             mCompleted = true;
         }
     }
 
+    /**
+     * Sets the bitmap to the SIZE*SIZE colors of a completed tile. A uniform
+     * tile gets the shared bitmap of its color instead of bmp, which is kept
+     * in the buffers for the next tile.
+     */
+    private void setColors(Buffers b, int[] colors, Bitmap bmp) {
+        releaseSharedBitmap();
+        if (UniformBitmaps.isUniform(colors, SIZE * SIZE)) {
+            b.spare = bmp;
+            mBitmap = UniformBitmaps.get(colors);
+            mSharedBitmap = true;
+        } else {
+            bmp.setPixels(colors, 0, SIZE, 0, 0, SIZE, SIZE);
+            mBitmap = bmp;
+            mSharedBitmap = false;
+        }
+    }
+
+    /** Tells UniformBitmaps this tile no longer uses its shared bitmap, if it has one. */
+    private void releaseSharedBitmap() {
+        if (mSharedBitmap) {
+            UniformBitmaps.release(mBitmap);
+            mSharedBitmap = false;
+        }
+    }
+
+    /** Sums the SIZE*SIZE iteration counts of the tile in mQuadStats. */
+    private void recordQuadStats(int[] iters) {
+        final int SZ2 = SIZE / 2;
+        final int max_iter = mMaxIter;
+        long[] stats = new long[8];
+        for (int y = 0, k = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++, k++) {
+                int q = 2 * ((y < SZ2 ? 0 : 2) + (x < SZ2 ? 0 : 1));
+                int iter = iters[k];
+                if (iter >= max_iter) {
+                    stats[q + 1]++;
+                } else {
+                    stats[q] += iter;
+                }
+            }
+        }
+        mQuadStats = stats;
+    }
+
+    /**
+     * Returns the iteration state of the parent tile if it can be used for
+     * this one, or null. Drops the parent tile reference.
+     */
+    private IterState getParentIterState() {
+        Tile p = mParentTile;
+        mParentTile = null;
+        if (p == null || !p.mCompleted || p.mIterState == null) return null;
+
+        int lowerZoomLevel = (mZoomLevel > 1) ? mZoomLevel / 2 : 0;
+        if (mZoomLevel == 0 ||
+                p.mZoomLevel != lowerZoomLevel ||
+                p.mI != (mI >> 1) ||
+                p.mJ != (mJ >> 1)) {
+            return null;
+        }
+        return p.mIterState;
+    }
+
     /**
      * Runs from the TileThread
      *
      * To avoid expensive lock, we want to ensure this runs only from the
      * tile thread.
+     * <p/>
+     * The mirror tile at -j-1 is reflected around the real axis at the pixel
+     * level: row r of this tile is at the exact opposite y of row SIZE-r of
+     * the mirror. Row 0 has no mirror in that tile so it is computed.
+     * <p/>
+     * For a Julia set the mirror tile is at -i-1,-j-1 and is reflected around
+     * the origin: columns are reversed the same way and column 0 is computed too.
      */
     public void fromMirror(Tile tile) {
-        if (tile != null && mBitmap == null && tile.mBitmap != null) {
-            Bitmap bmp = Bitmap.createBitmap(SIZE, SIZE, BMP_CONFIG);
+        if (tile != null &&
+                !mCompleted &&
+                tile.mCompleted &&
+                tile.mBitmap != null &&
+                tile.mMaxIter == mMaxIter &&
+                tile.mFractal.equals(mFractal) &&
+                mFractal.hasMirror()) {
+            final Buffers b = sBuffers.get();
+            Bitmap bmp = b.takeBitmap();
+
+            tile.mBitmap.getPixels(b.color, 0, SIZE, 0, 0, SIZE, SIZE);
+
+            // reverse rows 1..SIZE-1 in Y
+            for (int y1 = SIZE, y2 = SIZE * (SIZE - 1); y1 < y2; y1 += SIZE, y2 -= SIZE) {
+                System.arraycopy(b.color, y1, b.line, 0, SIZE); // y1->temp
+                System.arraycopy(b.color, y2, b.color, y1, SIZE); // y2->y1
+                System.arraycopy(b.line, 0, b.color, y2, SIZE); // temp->y2
+            }
 
-            tile.mBitmap.getPixels(sTempColor, 0, SIZE, 0, 0, SIZE, SIZE);
+            final boolean julia = mFractal.hasPointSymmetry();
+            if (julia) {
+                // reverse columns 1..SIZE-1 in X
+                for (int k = 0; k < SIZE * SIZE; k += SIZE) {
+                    for (int x1 = k + 1, x2 = k + SIZE - 1; x1 < x2; x1++, x2--) {
+                        int c = b.color[x1];
+                        b.color[x1] = b.color[x2];
+                        b.color[x2] = c;
+                    }
+                }
+            }
+
+            // compute row 0
+            int zoomFp8 = getZoomFp8(mZoomLevel);
+            double inv_zoom = (double)FP8_1 / zoomFp8;
+            double x = mI * inv_zoom;
+            double y = mJ * inv_zoom;
+            double step = inv_zoom / SIZE;
 
-            // reverse in Y
-            for (int y1 = 0, y2 = SIZE * (SIZE - 1); y1 < y2; y1 += SIZE, y2 -= SIZE) {
-                System.arraycopy(sTempColor, y1, sTempLine, 0, SIZE); // y1->temp
-                System.arraycopy(sTempColor, y2, sTempColor, y1, SIZE); // y2->y1
-                System.arraycopy(sTempLine, 0, sTempColor, y2, SIZE); // temp->y2
+            final int[] colorMap = ColorMaps.get(ColorMaps.GRADIENT, mMaxIter);
+            if (julia) {
+                final double cx = mFractal.getCx();
+                final double cy = mFractal.getCy();
+                JavaMandel.julia2(x, step, y, step, SIZE, 1, cx, cy, mMaxIter, SIZE, b.line);
+                for (int k = 0; k < SIZE; ++k) {
+                    b.color[k] = colorMap[b.line[k]];
+                }
+                // compute column 0
+                JavaMandel.julia2(x, step, y, step, 1, SIZE, cx, cy, mMaxIter, SIZE, b.line);
+                for (int k = 0; k < SIZE; ++k) {
+                    b.color[k * SIZE] = colorMap[b.line[k]];
+                }
+            } else {
+                if (mFractal.usesFormula()) {
+                    Formula f = mFractal.getFormula();
+                    f.compute(x, step, y, step, SIZE, 1, mMaxIter, SIZE, b.line);
+                } else {
+                    JavaMandel.mandelbrot2_line(x, step, y, SIZE, mMaxIter, b.line, 0);
+                }
+                for (int k = 0; k < SIZE; ++k) {
+                    b.color[k] = colorMap[b.line[k]];
+                }
             }
 
-            bmp.setPixels(sTempColor, 0, SIZE, 0, 0, SIZE, SIZE);
-            mBitmap = bmp;
-            mCompleted = tile.mCompleted;
+            setColors(b, b.color, bmp);
+            mCompleted = true;
         }
     }
 
-    /** Runs from the UI thread */
-    public void zoomForLowerLevel(Tile largerTile) {
-        if (largerTile != null && mBitmap == null && largerTile.mBitmap != null) {
-            final int i = mI;
-            final int j = mJ;
-
-            final int SZ2 = SIZE / 2;
-
-            int x = (i & 1) != 0 ? SZ2 : 0;
-            int y = (j & 1) != 0 ? SZ2 : 0;
-
-            Bitmap tmp = Bitmap
-                            .createBitmap(largerTile.mBitmap, x, y, SZ2, SZ2);
-            mBitmap = Bitmap.createScaledBitmap(tmp, SIZE, SIZE, true);
+    /**
+     * Runs from the Buddhabrot renderer thread.
+     * <p/>
+     * Sets the tile pixels from the SIZE*SIZE block at offset in the colors
+     * computed for a larger area. Called for each progressive update, the last
+     * one marks the tile as completed.
+     */
+    public void fromDensity(int[] colors, int offset, int stride, boolean completed) {
+        Bitmap bmp = mBitmap;
+        if (bmp == null || mSharedBitmap || !bmp.isMutable()) {
+            // the zoomed preview of the lower level may not be mutable,
+            // and a shared bitmap must never be written
+            bmp = Bitmap.createBitmap(SIZE, SIZE, BMP_CONFIG);
         }
+        bmp.setPixels(colors, offset, stride, 0, 0, SIZE, SIZE);
+        releaseSharedBitmap();
+        mBitmap = bmp;
+        mCompleted = completed;
     }
 
-    //-------
+    /**
+     * Runs from the TileThread.
+     * <p/>
+     * Sets a preview bitmap for this tile by scaling up the part of a tile of
+     * a lower zoom level that covers it, if this tile has no bitmap yet.
+     * The larger tile can be any number of levels up. The pixels are scaled
+     * with a bilinear filter in the per-thread buffers, the only allocation
+     * is the tile bitmap itself.
+     */
+    public void zoomForLowerLevel(Tile largerTile) {
+        if (largerTile == null || mBitmap != null || mCompleted) return;
+        Bitmap src = largerTile.mBitmap;
+        if (src == null) return;
+
+        // tile zoom factors are powers of 2
+        int f = getZoomFp8(mZoomLevel) / getZoomFp8(largerTile.mZoomLevel);
+        if (f < 2 || f > SIZE) return;
+        int shift = Integer.numberOfTrailingZeros(f);
+        if (largerTile.mI != (mI >> shift) || largerTile.mJ != (mJ >> shift)) return;
+
+        final int s = SIZE / f;
+        final Buffers b = sBuffers.get();
+        src.getPixels(b.color, 0, s, (mI & (f - 1)) * s, (mJ & (f - 1)) * s, s, s);
+        scaleBilinear(b.color, s, b.block);
+
+        Bitmap bmp = Bitmap.createBitmap(SIZE, SIZE, BMP_CONFIG);
+        bmp.setPixels(b.block, 0, SIZE, 0, 0, SIZE, SIZE);
+        if (mBitmap == null && !mCompleted) mBitmap = bmp;
+    }
 
-    private void createColorMap(int max_iter) {
-        if (sColorMap == null || sColorMap.length != max_iter + 1) {
-            sColorMap = new int[max_iter + 1];
-            for(int i = 0; i <= max_iter; i++) {
-                sColorMap[i] = colorIndex(i, max_iter);
+    /**
+     * Scales the s*s pixels of src up to SIZE*SIZE pixels in dest,
+     * using 8-bit fixed point weights. Pixel centers are aligned.
+     */
+    private static void scaleBilinear(int[] src, int s, int[] dest) {
+        // source position in 16.16 of the center of dest pixel 0, and the step
+        final int step = (s << 16) / SIZE;
+        final int start = step / 2 - 0x8000;
+        final int max = s - 1;
+
+        for (int y = 0, k = 0, v = start; y < SIZE; y++, v += step) {
+            int vc = v < 0 ? 0 : v;
+            int y0 = vc >> 16;
+            int y1 = y0 < max ? y0 + 1 : max;
+            int fy = (vc >> 8) & 0xFF;
+            int row0 = y0 * s;
+            int row1 = y1 * s;
+
+            for (int x = 0, u = start; x < SIZE; x++, k++, u += step) {
+                int uc = u < 0 ? 0 : u;
+                int x0 = uc >> 16;
+                int x1 = x0 < max ? x0 + 1 : max;
+                int fx = (uc >> 8) & 0xFF;
+
+                int c0 = lerp(src[row0 + x0], src[row0 + x1], fx);
+                int c1 = lerp(src[row1 + x0], src[row1 + x1], fx);
+                dest[k] = 0xFF000000 | lerp(c0, c1, fy);
             }
         }
     }
 
-    // We'll hack a quick fixed palette with a gradient.
-    // TODO Make palette customizable
-    // color is ARGB with A=FF
-    // we'll do B=0x80 => 0xFF
-    // and RG=0x00 => 0xFF
-    private int colorIndex(int iter, int max_iter) {
-        float col_factor1 = 255.0f / max_iter;
-        float col_factor2 = 223.0f * 2 / max_iter; // 0xFF-0x20=xDF=255-32=223
-        int rg, b;
-        if (iter >= max_iter) {
-            rg = b = 0;
-        } else  {
-            rg = (int)(iter * col_factor1);
-            b  = (int)(0x20 + iter * col_factor2);
+    /**
+     * Runs from the TileThread.
+     * <p/>
+     * Sets a preview bitmap for this tile by scaling down the bitmaps of its
+     * four children at the next zoom level, each 2x2 block of child pixels
+     * being averaged into one pixel. children[q] is the child at
+     * (2*i + (q &amp; 1), 2*j + (q >> 1)) and they must all have a bitmap.
+     * <p/>
+     * If the children are all completed with the same max_iter as this tile
+     * the result is as good as computing it: the tile is marked as completed,
+     * replacing any preview it had.
+     */
+    public void zoomFromChildren(Tile[] children) {
+        if (children == null || children.length != 4 || mCompleted) return;
+
+        final int zoomFp8 = 2 * getZoomFp8(mZoomLevel);
+        final Bitmap[] src = new Bitmap[4];
+        boolean exact = true;
+        for (int q = 0; q < 4; q++) {
+            Tile c = children[q];
+            if (c == null ||
+                    (src[q] = c.mBitmap) == null ||
+                    getZoomFp8(c.mZoomLevel) != zoomFp8 ||
+                    c.mI != 2 * mI + (q & 1) ||
+                    c.mJ != 2 * mJ + (q >> 1) ||
+                    !c.mFractal.equals(mFractal)) {
+                return;
+            }
+            exact &= c.mCompleted && c.mMaxIter == mMaxIter;
+        }
+        if (mBitmap != null && !exact) return;
+
+        final int H = SIZE / 2;
+        final Buffers b = sBuffers.get();
+        for (int q = 0; q < 4; q++) {
+            src[q].getPixels(b.color, 0, SIZE, 0, 0, SIZE, SIZE);
+            int k = (q >> 1) * H * SIZE + (q & 1) * H;
+            for (int y = 0; y < H; y++, k += SIZE - H) {
+                for (int x = 0, k1 = 2 * y * SIZE; x < H; x++, k++, k1 += 2) {
+                    int c0 = b.color[k1];
+                    int c1 = b.color[k1 + 1];
+                    int c2 = b.color[k1 + SIZE];
+                    int c3 = b.color[k1 + SIZE + 1];
+                    int rb = (c0 & 0xFF00FF) + (c1 & 0xFF00FF) + (c2 & 0xFF00FF) + (c3 & 0xFF00FF);
+                    int g = (c0 & 0x00FF00) + (c1 & 0x00FF00) + (c2 & 0x00FF00) + (c3 & 0x00FF00);
+                    b.block[k] = 0xFF000000 | ((rb >> 2) & 0xFF00FF) | ((g >> 2) & 0x00FF00);
+                }
+            }
         }
-        return 0xFF000000 | (rg << 16) | (rg << 8) | (b);
+
+        Bitmap bmp = b.takeBitmap();
+        if (exact) {
+            setColors(b, b.block, bmp);
+            mCompleted = true;
+        } else {
+            bmp.setPixels(b.block, 0, SIZE, 0, 0, SIZE, SIZE);
+            mBitmap = bmp;
+        }
+    }
+
+    /** Blends 2 RGB colors, f being the weight of c1 in [0..255]. */
+    private static int lerp(int c0, int c1, int f) {
+        int g = 256 - f;
+        int rb = (((c0 & 0xFF00FF) * g + (c1 & 0xFF00FF) * f) >> 8) & 0xFF00FF;
+        int gr = (((c0 & 0x00FF00) * g + (c1 & 0x00FF00) * f) >> 8) & 0x00FF00;
+        return rb | gr;
+    }
+
+    //-------
+
+    /**
+     * Interpolates between the two color map entries around the smooth
+     * iteration count.
+     */
+    private int smoothColor(int[] colorMap, float nu) {
+        int i = (int) nu;
+        int max = colorMap.length - 1;
+        if (i >= max) return colorMap[max];
+
+        int c0 = colorMap[i];
+        int c1 = colorMap[i + 1 < max ? i + 1 : i];
+        int f = (int) ((nu - i) * 256);
+        int g = 256 - f;
+        int r = (((c0 >> 16) & 0xFF) * g + ((c1 >> 16) & 0xFF) * f) >> 8;
+        int gr = (((c0 >> 8) & 0xFF) * g + ((c1 >> 8) & 0xFF) * f) >> 8;
+        int b = ((c0 & 0xFF) * g + (c1 & 0xFF) * f) >> 8;
+        return 0xFF000000 | (r << 16) | (gr << 8) | b;
     }
 }
@@ -178,6 +178,8 @@ public class TileActivity extends Activity {
         sub.add(0, R.string.orient_sensor,   0, R.string.orient_sensor).setCheckable(true);
 
         menu.add(0, R.string.fly_mode, 0, R.string.fly_mode).setCheckable(true);
+        menu.add(0, R.string.julia_mode, 0, R.string.julia_mode).setCheckable(true);
+        menu.add(0, R.string.buddhabrot_mode, 0, R.string.buddhabrot_mode).setCheckable(true);
         menu.add(0, R.string.test_mode, 0, R.string.test_mode);
         menu.add(0, R.string.settings, 0, R.string.settings);
         return super.onCreateOptionsMenu(menu);
@@ -191,6 +193,8 @@ public class TileActivity extends Activity {
         }
 
         menu.findItem(R.string.fly_mode).setChecked(mTileContext.inFlyMode());
+        menu.findItem(R.string.julia_mode).setChecked(mTileContext.inJuliaMode());
+        menu.findItem(R.string.buddhabrot_mode).setChecked(mTileContext.inBuddhabrotMode());
 
         return super.onPrepareOptionsMenu(menu);
     }
@@ -225,6 +229,12 @@ public class TileActivity extends Activity {
         case R.string.fly_mode:
             toggleFlyMode();
             break;
+        case R.string.julia_mode:
+            mTileContext.toggleJuliaMode();
+            break;
+        case R.string.buddhabrot_mode:
+            mTileContext.toggleBuddhabrotMode();
+            break;
         case R.string.test_mode:
             intent = new Intent(this, TestActivity.class);
             startActivity(intent);
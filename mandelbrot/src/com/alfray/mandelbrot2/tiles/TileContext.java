@@ -6,6 +6,8 @@
 
 package com.alfray.mandelbrot2.tiles;
 
+import com.alfray.mandelbrot2.Buddhabrot;
+import com.alfray.mandelbrot2.Fractal;
 import com.alfray.mandelbrot2.JavaMandel;
 import com.alfray.mandelbrot2.util.BaseThread;
 
@@ -13,21 +15,25 @@ import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.PowerManager;
 import android.os.SystemClock;
 import android.os.PowerManager.WakeLock;
 import android.util.Log;
-import android.util.SparseArray;
 import android.view.KeyEvent;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.TextView;
 import android.widget.ZoomControls;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Map;
 
 public class TileContext {
 
@@ -46,6 +52,11 @@ public class TileContext {
         -0.66992f, -0.45215f,
     };
 
+    /** Returns a copy of the points of interest, 2 floats (cX, cY) per place. */
+    public static float[] getInterestingPlaces() {
+        return sInterestingPlaces.clone();
+    }
+
     private static final int FLY_INIT = 0;
     private static final int FLY_PAN   = 1;
     private static final int FLY_ZOOM  = 2;
@@ -68,7 +79,66 @@ public class TileContext {
 
     private static final int FLY_ADVANCE_NTH = 2;
 
-    private static class TileCache extends SparseArray<Tile> {
+    /** Max number of Julia constants for which we keep a tile cache. */
+    private static final int MAX_JULIA_CACHES = 4;
+
+    /** Buddhabrot: escaping orbits longer than this are ignored. */
+    private static final int BUDDHA_MAX_ITER = 256;
+    /** Buddhabrot: number of c values sampled per pixel of the rendered area. */
+    private static final int BUDDHA_SAMPLES_PER_PIXEL = 16;
+    /** Buddhabrot: delay between two progressive updates of the tiles. */
+    private static final int BUDDHA_UPDATE_MS = 500;
+
+    /** Tiles this far around the view are prefetched. */
+    private static final int PREFETCH_RING = 1;
+    /** The prefetched area extends to where the panning leads in that time... */
+    private static final int PREFETCH_LOOKAHEAD_MS = 500;
+    /** ...but by no more than that many tiles. */
+    private static final int PREFETCH_MAX_LEAD = 3;
+    /** Pan events further apart than this are not part of the same move. */
+    private static final int PAN_IDLE_MS = 200;
+    /** Previews are scaled from a tile at most that many zoom levels up. */
+    private static final int PREVIEW_MAX_LEVELS = 4;
+    /** The next zoom level is precomputed once the view hasn't moved for that long. */
+    private static final int IDLE_DELAY_MS = 1000;
+    /** Completed tiles are redrawn together at most once per that delay (60 fps). */
+    private static final int FRAME_MS = 1000 / 60;
+
+    /**
+     * The tile caches of each fractal visited, so that switching between the
+     * Mandelbrot set and a Julia set finds its tiles again.
+     * Only the MAX_JULIA_CACHES most recent Julia sets are kept, the other
+     * fractals never go.
+     */
+    private static class FractalCaches extends LinkedHashMap<Fractal, TileMap> {
+        private static final long serialVersionUID = 1L;
+
+        public FractalCaches() {
+            super(4, 0.75f, true /*accessOrder*/);
+        }
+
+        /**
+         * The eldest entry is not necessarily a Julia set (e.g. the Mandelbrot
+         * set wasn't visited lately) so this drops the least recently used
+         * Julia cache itself, and never lets the map do it.
+         */
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Fractal, TileMap> eldest) {
+            int julias = 0;
+            for (Fractal f : keySet()) {
+                if (f.isJulia()) julias++;
+            }
+            if (julias > MAX_JULIA_CACHES) {
+                // iterated from the least recently used
+                for (Iterator<Fractal> it = keySet().iterator(); it.hasNext(); ) {
+                    if (it.next().isJulia()) {
+                        it.remove();
+                        break;
+                    }
+                }
+            }
+            return false;
+        }
     }
 
     private int mZoomLevel;
@@ -76,34 +146,71 @@ public class TileContext {
     private int mViewHeight;
     private int mPanningX;
     private int mPanningY;
-    private SparseArray<TileCache> mLevelTileCaches;
+    /** The tiles of all levels of mFractal. Lookups are lock-free. */
+    private volatile TileMap mTileCache;
+    private FractalCaches mFractalCaches;
+    private Fractal mFractal = Fractal.mandelbrot(JavaMandel.formula());
+    /**
+     * The nx*ny tiles from (mCurrentI, mCurrentJ), stored as a ring buffer:
+     * tile (i, j) is at gridSlot(i, j). Panning only replaces the tiles of the
+     * rows or columns that enter the view, see updateAll().
+     */
     private Tile[] mVisibleTiles;
+    /** The nx used to lay out mVisibleTiles, 0 if it must be rebuilt. */
+    private int mGridNx;
 
     private TileView mTileView;
     private ZoomControls mZoomer;
     private Handler mHandler;
     private TileThread mTileThread;
 
-    /** lock to synchronize on zoom level change between tile thread and context */
-    private Object mZoomLock = new Object();
+    /**
+     * Incremented each time the zoom level or the fractal changes. Tiles are
+     * stamped with it when requested, so that worker threads can tell without
+     * any lock that a completed tile belongs to a view that is gone.
+     * Only changed by the UI thread.
+     */
+    private volatile int mViewEpoch;
 
     private int mMaxIter;
     private boolean mViewNeedsInvalidate;
 
+    /**
+     * Union of the completed tiles not redrawn yet, in virtual coordinates
+     * so that it doesn't depend on the panning. Guarded by itself, like
+     * mDirtyFlushPosted.
+     */
+    private final Rect mDirtyTiles = new Rect();
+    private boolean mDirtyFlushPosted;
+    private final Rect mTempDirty = new Rect();
+
     private int mMiddleX;
     private int mMiddleY;
 
     private int mCurrentI;
     private int mCurrentJ;
 
+    /** Recent panning velocity in pixels per ms, same direction as mPanningX/Y. */
+    private float mPanVelocityX;
+    private float mPanVelocityY;
+    private long mLastPanMs;
+
     private int mInterestingPlaceIndex;
 
+    /** Mandelbrot view to go back to when leaving the Julia mode. */
+    private int mMandelZoomLevel;
+    private int mMandelPanX;
+    private int mMandelPanY;
+
     private long mHideZoomAfterMs;
     private HideZoomRunnable mHideZoomRunnable;
+    private IdleRunnable mIdleRunnable;
+    private DirtyFlushRunnable mDirtyFlushRunnable;
     private TextView mTextView;
     private boolean mNeedUpdateCaption;
     private UpdateCaptionRunnable mUpdateCaptionRunnable;
     private FlyRunnable mFlyRunnable;
+    private BuddhabrotRenderer mBuddhabrot;
 
     /**
      * State preserved via {@link Activity#onRetainNonConfigurationInstance()}
@@ -115,11 +222,11 @@ public class TileContext {
      */
     private static class ConfigSavvyState {
             public final Tile[] mVisibleTiles2;
-        public final SparseArray<TileCache> mTileCache;
+        public final FractalCaches mTileCaches;
 
-        public ConfigSavvyState(Tile[] visibleTiles, SparseArray<TileCache> tileCache) {
+        public ConfigSavvyState(Tile[] visibleTiles, FractalCaches tileCaches) {
             mVisibleTiles2 = visibleTiles;
-            mTileCache = tileCache;
+            mTileCaches = tileCaches;
         }
     }
 
@@ -127,11 +234,12 @@ public class TileContext {
 
         if (lastNonConfigurationInstance instanceof ConfigSavvyState) {
             ConfigSavvyState state = (ConfigSavvyState) lastNonConfigurationInstance;
-            mLevelTileCaches = state.mTileCache;
+            mFractalCaches = state.mTileCaches;
             mVisibleTiles = state.mVisibleTiles2;
         } else {
-            mLevelTileCaches = new SparseArray<TileCache>(16);
+            mFractalCaches = new FractalCaches();
         }
+        mTileCache = getFractalCaches(mFractal);
 
         if (mTileThread == null) {
             mTileThread = new TileThread();
@@ -141,23 +249,43 @@ public class TileContext {
 
         mHandler = new Handler();
         mHideZoomRunnable = new HideZoomRunnable();
+        mIdleRunnable = new IdleRunnable();
+        mDirtyFlushRunnable = new DirtyFlushRunnable();
         mUpdateCaptionRunnable = new UpdateCaptionRunnable();
     }
 
     public Object getNonConfigurationInstance() {
-        return new ConfigSavvyState(mVisibleTiles, mLevelTileCaches);
+        return new ConfigSavvyState(mVisibleTiles, mFractalCaches);
+    }
+
+    /** Returns the tile cache of that fractal, creating it if needed. */
+    private TileMap getFractalCaches(Fractal fractal) {
+        TileMap cache = mFractalCaches.get(fractal);
+        if (cache == null) {
+            cache = new TileMap();
+            mFractalCaches.put(fractal, cache);
+        }
+        return cache;
     }
 
     /** Runs from the UI thread */
     public void resetState(Bundle inState) {
         if (inState == null) {
-            mZoomLevel = 0;
-            mPanningX  = 0;
-            mPanningY  = 0;
+            setFractal(mFractal, 0, 0, 0);
         } else {
-            mZoomLevel = inState.getInt("mandelbrot.zoom");
-            mPanningX  = inState.getInt("mandelbrot.panX");
-            mPanningY  = inState.getInt("mandelbrot.panY");
+            Fractal fractal = Fractal.mandelbrot(JavaMandel.formula());
+            if (inState.getBoolean("mandelbrot.julia")) {
+                fractal = Fractal.julia(
+                        inState.getDouble("mandelbrot.juliaX"),
+                        inState.getDouble("mandelbrot.juliaY"));
+                mMandelZoomLevel = inState.getInt("mandelbrot.mandelZoom");
+                mMandelPanX = inState.getInt("mandelbrot.mandelPanX");
+                mMandelPanY = inState.getInt("mandelbrot.mandelPanY");
+            }
+            setFractal(fractal,
+                    inState.getInt("mandelbrot.zoom"),
+                    inState.getInt("mandelbrot.panX"),
+                    inState.getInt("mandelbrot.panY"));
 
             int nn = inState.getInt("mandelbrot.nbtiles");
             if (nn > 0) {
@@ -192,6 +320,16 @@ public class TileContext {
         outState.putInt("mandelbrot.panX", mPanningX);
         outState.putInt("mandelbrot.panY", mPanningY);
 
+        Fractal fractal = mFractal;
+        outState.putBoolean("mandelbrot.julia", fractal.isJulia());
+        if (fractal.isJulia()) {
+            outState.putDouble("mandelbrot.juliaX", fractal.getCx());
+            outState.putDouble("mandelbrot.juliaY", fractal.getCy());
+            outState.putInt("mandelbrot.mandelZoom", mMandelZoomLevel);
+            outState.putInt("mandelbrot.mandelPanX", mMandelPanX);
+            outState.putInt("mandelbrot.mandelPanY", mMandelPanY);
+        }
+
         // we're not going to save all tiles since this is just for the
         // transient state save (i.e. the activity is momentarily paused
         // because another one has precedence.) However in this case to
@@ -286,6 +424,22 @@ public class TileContext {
     public void pause(boolean shouldPause) {
         if (shouldPause) {
             stopFlyMode();
+            stopBuddhabrot();
+        } else {
+            // the prefs may have changed max_iter or the formula whilst we were paused
+            int maxIter = mMaxIter;
+            updateMaxIter();
+            Fractal fractal = Fractal.mandelbrot(JavaMandel.formula());
+            // only a plain Mandelbrot view follows the formula pref, the Julia
+            // and Buddhabrot modes are kept
+            if (!mFractal.isJulia() && !mFractal.isBuddhabrot() &&
+                    !fractal.equals(mFractal)) {
+                setFractal(fractal, mZoomLevel, mPanningX, mPanningY);
+            } else if (maxIter != mMaxIter || mFractal.isBuddhabrot()) {
+                updateCaption();
+                updateAll(true /*force*/);
+                invalidateView();
+            }
         }
         if (mTileThread != null) {
             logd("Pause TileThread: %s", shouldPause ? "yes" : "no");
@@ -296,6 +450,13 @@ public class TileContext {
 
     /** Runs from the UI (activity) thread */
     public void destroy() {
+        stopBuddhabrot();
+        mHandler.removeCallbacks(mIdleRunnable);
+        mHandler.removeCallbacks(mDirtyFlushRunnable);
+        synchronized (mDirtyTiles) {
+            mDirtyTiles.setEmpty();
+            mDirtyFlushPosted = false;
+        }
         if (mTileThread != null) {
             logd("Kill TileThread");
             mTileThread.waitForStop();
@@ -306,6 +467,7 @@ public class TileContext {
     /** Runs from the UI thread */
     public void onPanTo(int x, int y) {
         if (x != mPanningX || y != mPanningY) {
+            updatePanVelocity(x - mPanningX, y - mPanningY);
             mPanningX = x;
             mPanningY = y;
             updateAll(false /*force*/);
@@ -316,6 +478,9 @@ public class TileContext {
 
     /** Runs from the UI thread */
     public void onPanStarted() {
+        mPanVelocityX = 0;
+        mPanVelocityY = 0;
+        mLastPanMs = SystemClock.uptimeMillis();
         showZoomer(false /*force*/);
         runUpdateCaption(true);
     }
@@ -325,6 +490,20 @@ public class TileContext {
         runUpdateCaption(false);
     }
 
+    /** Runs from the UI thread. Averages the velocity over the last pan events. */
+    private void updatePanVelocity(int dx, int dy) {
+        long now = SystemClock.uptimeMillis();
+        long dt = now - mLastPanMs;
+        if (dt > PAN_IDLE_MS) {
+            mPanVelocityX = 0;
+            mPanVelocityY = 0;
+        } else if (dt > 0) {
+            mPanVelocityX = (mPanVelocityX + (float) dx / dt) / 2;
+            mPanVelocityY = (mPanVelocityY + (float) dy / dt) / 2;
+        }
+        mLastPanMs = now;
+    }
+
     /** Runs from the UI thread */
     public boolean onKeyDown(KeyEvent event) {
         switch (event.getKeyCode()) {
@@ -342,12 +521,82 @@ public class TileContext {
             case KeyEvent.KEYCODE_C:
                 clearTileCache();
                 break;
+            case KeyEvent.KEYCODE_J:
+                toggleJuliaMode();
+                break;
             default:
                 return false;
         }
         return true;
     }
 
+    public boolean inJuliaMode() {
+        return mFractal.isJulia();
+    }
+
+    /**
+     * Runs from the UI thread.
+     * <p/>
+     * Switches from the Mandelbrot set to the Julia set of the point at the
+     * center of the view, or back to the Mandelbrot view we came from.
+     * The tile caches of both are kept so switching back and forth with the
+     * same constant doesn't recompute anything.
+     */
+    public void toggleJuliaMode() {
+        if (mFractal.isJulia()) {
+            setFractal(Fractal.mandelbrot(JavaMandel.formula()),
+                    mMandelZoomLevel, mMandelPanX, mMandelPanY);
+        } else {
+            float zoom = 0 - (float) Tile.getZoomFp8(mZoomLevel);
+            Fractal julia = Fractal.julia(mPanningX / zoom, mPanningY / zoom);
+            mMandelZoomLevel = mZoomLevel;
+            mMandelPanX = mPanningX;
+            mMandelPanY = mPanningY;
+            setFractal(julia, 0, 0, 0);
+        }
+    }
+
+    public boolean inBuddhabrotMode() {
+        return mFractal.isBuddhabrot();
+    }
+
+    /**
+     * Runs from the UI thread.
+     * <p/>
+     * Switches between the Mandelbrot set and its Buddhabrot density, which
+     * share the same coordinates so the view doesn't move.
+     */
+    public void toggleBuddhabrotMode() {
+        if (mFractal.isBuddhabrot()) {
+            setFractal(Fractal.mandelbrot(JavaMandel.formula()), mZoomLevel, mPanningX, mPanningY);
+        } else if (mFractal.isJulia()) {
+            setFractal(Fractal.BUDDHABROT_SET, mMandelZoomLevel, mMandelPanX, mMandelPanY);
+        } else {
+            setFractal(Fractal.BUDDHABROT_SET, mZoomLevel, mPanningX, mPanningY);
+        }
+    }
+
+    /** Runs from the UI thread. Changes the fractal, its zoom level and panning. */
+    private void setFractal(Fractal fractal, int zoomLevel, int panX, int panY) {
+        stopBuddhabrot();
+        mFractal = fractal;
+        mZoomLevel = zoomLevel;
+        mTileCache = getFractalCaches(fractal);
+        mViewEpoch++;
+        mPanningX = panX;
+        mPanningY = panY;
+        if (mTileThread != null) {
+            mTileThread.clear();
+        }
+        if (mZoomer != null) {
+            mZoomer.setIsZoomOutEnabled(mZoomLevel > 0);
+        }
+        updateMaxIter();
+        updateCaption();
+        updateAll(true /*force*/);
+        invalidateView();
+    }
+
     public void panToInterestingPlace() {
         int index = mInterestingPlaceIndex;
 
@@ -396,8 +645,9 @@ public class TileContext {
      * A thread that knows how to generate an image of the current view.
      *
      * This is similar to updateAll except that it is run from
-     * a different thread. That means we must prevent stuff like
-     * panning or zooming.
+     * a different thread. The tiles are still requested from the UI
+     * thread, which owns the view state, and this thread only waits
+     * for them to complete.
      */
     public class ImageGenerator extends BaseThread {
 
@@ -406,9 +656,12 @@ public class TileContext {
         private final Activity mActivity;
         private final Runnable mCallback;
         private Bitmap mBitmap;
-        private LinkedList<Tile> mTiles;
+        /** Set by the UI thread once it requested the tiles, with mX1/mY1/mSx/mSy. */
+        private volatile LinkedList<Tile> mTiles;
         private int mX1;
         private int mY1;
+        private int mSx;
+        private int mSy;
         private Bitmap mDestBmp;
         private Canvas mCanvas;
 
@@ -444,42 +697,54 @@ public class TileContext {
 
         @Override
         protected void startRun() {
+            // requestTile() and the view state it reads belong to the UI thread,
+            // which may be zooming or changing the fractal meanwhile.
+            mHandler.post(new Runnable() {
+                public void run() {
+                    requestTiles();
+                    wakeUp();
+                }
+            });
+        }
+
+        /** Runs from the UI thread. Requests the tiles covering the image. */
+        private void requestTiles() {
             int sx = mWidth <= 0 ? mViewWidth : mWidth;
             int sy = mHeight <= 0 ? mViewHeight : mHeight;
 
-            logd("Generating Image %d,%d", sx, sy);
-
-            mDestBmp = Bitmap.createBitmap(sx, sy, Tile.BMP_CONFIG);
-            mCanvas = new Canvas(mDestBmp);
-
             int sx2 = sx / 2;
             int sy2 = sy / 2;
 
             final int SZ = Tile.SIZE;
 
-            mTiles = new LinkedList<Tile>();
-            synchronized (mZoomLock) {
-                // boundaries in the virtual-screen space
-                mX1 = -mPanningX - sx2;
-                mY1 = -mPanningY - sy2;
+            LinkedList<Tile> tiles = new LinkedList<Tile>();
 
-                int x2 = -mPanningX + sx2;
-                int y2 = -mPanningY + sy2;
+            // boundaries in the virtual-screen space
+            int x1 = -mPanningX - sx2;
+            int y1 = -mPanningY - sy2;
 
-                int i = ij_for_xy(mX1);
-                int j = ij_for_xy(mY1);
+            int x2 = -mPanningX + sx2;
+            int y2 = -mPanningY + sy2;
 
-                int xs = xy_for_ij(i);
-                int ys = xy_for_ij(j);
+            int i = ij_for_xy(x1);
+            int j = ij_for_xy(y1);
 
-                // get the list of tiles we need
-                for (int y = ys; y < y2; y += SZ, j++) {
-                    for (int i1 = i, x = xs; x < x2; x += SZ, i1++) {
-                        Tile t = requestTile(i1, j);
-                        mTiles.add(t);
-                    }
+            int xs = xy_for_ij(i);
+            int ys = xy_for_ij(j);
+
+            // get the list of tiles we need
+            for (int y = ys; y < y2; y += SZ, j++) {
+                for (int i1 = i, x = xs; x < x2; x += SZ, i1++) {
+                    Tile t = requestTile(i1, j);
+                    tiles.add(t);
                 }
             }
+
+            mX1 = x1;
+            mY1 = y1;
+            mSx = sx;
+            mSy = sy;
+            mTiles = tiles;
         }
 
         /**
@@ -488,8 +753,20 @@ public class TileContext {
          */
         @Override
         protected void runIteration() {
+            final LinkedList<Tile> tiles = mTiles;
+            if (tiles == null) {
+                // the UI thread hasn't requested the tiles yet
+                waitFor(100 /* ms */);
+                return;
+            }
+
+            if (mCanvas == null) {
+                logd("Generating Image %d,%d", mSx, mSy);
+                mDestBmp = Bitmap.createBitmap(mSx, mSy, Tile.BMP_CONFIG);
+                mCanvas = new Canvas(mDestBmp);
+            }
 
-            for (Iterator<Tile> it = mTiles.iterator(); it.hasNext();) {
+            for (Iterator<Tile> it = tiles.iterator(); it.hasNext();) {
                 Tile t = it.next();
                 if (!t.isCompleted()) continue;
 
@@ -507,7 +784,7 @@ public class TileContext {
                 logd("ImageGen: apply tile %d,%d", x, y);
             }
 
-            if (mTiles.size() == 0) {
+            if (tiles.size() == 0) {
                 // job completed! set the final bitmap
                 mBitmap = mDestBmp;
                 logd("ImageGen: completed.");
@@ -515,8 +792,8 @@ public class TileContext {
             } else {
                 // Wait a bit for the remaining tiles to complete.
                 // The 10 milliseconds per tile should be optimistic.
-                logd("ImageGen: Waiting for %d tiles", mTiles.size());
-                waitFor(mTiles.size() * 10 /* ms */);
+                logd("ImageGen: Waiting for %d tiles", tiles.size());
+                waitFor(tiles.size() * 10 /* ms */);
             }
         }
 
@@ -538,52 +815,380 @@ public class TileContext {
     /**
      * Runs from the UI thread.
      * This means stuff like panning or zoom cannot change while this executes.
+     * <p/>
+     * The visible tiles are the nx*ny ones from the tile at the top-left corner
+     * of the view, enough to cover it whatever the panning within that tile.
+     * When the view moves to another tile only the rows and columns that got
+     * out of view are dropped and the ones that got in requested; all the
+     * tiles are requested again if forced or if the view moved too far.
      */
     private void updateAll(boolean force) {
+        if (mViewWidth <= 0 || mViewHeight <= 0) return;
         final int SZ = Tile.SIZE;
 
         final int nx = (mViewWidth  / SZ) + 2;
         final int ny = (mViewHeight / SZ) + 2;
         final int nn = nx * ny;
-        if (mVisibleTiles == null || mVisibleTiles.length != nn) {
+        if (mVisibleTiles == null || mVisibleTiles.length != nn || mGridNx != nx) {
             mVisibleTiles = new Tile[nn];
+            mGridNx = nx;
             force = true;
         }
 
-        final int sx2 = mMiddleX;
-        final int sy2 = mMiddleY;
-
-        // boundaries in the virtual-screen space
-        int x1 = -mPanningX - sx2;
-        int y1 = -mPanningY - sy2;
-
-        int x2 = -mPanningX + sx2;
-        int y2 = -mPanningY + sy2;
-
-        int i = ij_for_xy(x1);
-        int j = ij_for_xy(y1);
+        // top-left corner in the virtual-screen space
+        int i = ij_for_xy(-mPanningX - mMiddleX);
+        int j = ij_for_xy(-mPanningY - mMiddleY);
 
         if (!force && mCurrentI == i && mCurrentJ == j) {
             return;
         }
+
+        if (DEBUG) logd("UpdateAll: (%d,%d) from (%d,%d)%s", i, j, mCurrentI, mCurrentJ,
+                force ? " forced" : "");
+
+        if (force) {
+            for (int j1 = j; j1 < j + ny; j1++) {
+                for (int i1 = i; i1 < i + nx; i1++) {
+                    mVisibleTiles[gridSlot(i1, j1, nx, ny)] = requestTile(i1, j1);
+                }
+            }
+        } else {
+            updateGrid(i, j, mCurrentI, mCurrentJ, nx, ny, false /*request*/);
+            updateGrid(mCurrentI, mCurrentJ, i, j, nx, ny, true /*request*/);
+        }
         mCurrentI = i;
         mCurrentJ = j;
 
-        int xs = xy_for_ij(i);
-        int ys = xy_for_ij(j);
+        if (mFractal.isBuddhabrot()) {
+            startBuddhabrot(i, j, nx, ny);
+        } else {
+            prefetchAround(i, j, nx, ny);
+        }
+
+        // the view moved, plan the next zoom level again once it stays still
+        if (mTileThread != null) {
+            mTileThread.clearIdle();
+        }
+        mHandler.removeCallbacks(mIdleRunnable);
+        mHandler.postDelayed(mIdleRunnable, IDLE_DELAY_MS);
+    }
+
+    /**
+     * Runs from the UI thread.
+     * <p/>
+     * Visits the tiles of the nx*ny area at (i1, j1) that are not in the one
+     * at (i0, j0), skipping the overlap: requests them and puts them in
+     * mVisibleTiles, or removes them from it.
+     */
+    private void updateGrid(int i0, int j0, int i1, int j1, int nx, int ny, boolean request) {
+        final Tile[] tiles = mVisibleTiles;
+        for (int j = j1; j < j1 + ny; j++) {
+            boolean inside = j >= j0 && j < j0 + ny;
+            for (int i = i1; i < i1 + nx; i++) {
+                if (inside && i >= i0 && i < i0 + nx) {
+                    i = i0 + nx - 1;
+                    continue;
+                }
+                tiles[gridSlot(i, j, nx, ny)] = request ? requestTile(i, j) : null;
+            }
+        }
+    }
+
+    /** Index of tile (i, j) in the nx*ny ring buffer of mVisibleTiles. */
+    private static int gridSlot(int i, int j, int nx, int ny) {
+        i %= nx;
+        if (i < 0) i += nx;
+        j %= ny;
+        if (j < 0) j += ny;
+        return j * nx + i;
+    }
+
+    /**
+     * Runs from the UI thread.
+     * <p/>
+     * Schedules the tiles of the next zoom level that will be visible if the
+     * user zooms in here, the central ones first. They are computed at the
+     * lowest priority, so that zooming in finds them in the cache instead of
+     * showing the blurry previews of this level.
+     */
+    private void precomputeNextLevel() {
+        if (mTileThread == null || mFractal.isBuddhabrot()) return;
+        mTileThread.clearIdle();
 
-        if (DEBUG) logd("UpdateAll: (%d,%d) px(%d,%d)", i, j, xs, ys);
+        final int SZ = Tile.SIZE;
+        final int nextLevel = mZoomLevel == 0 ? 1 : mZoomLevel * 2;
+        final int maxIter = getMaxIter(nextLevel);
+
+        // same as changeZoomBy then updateAll
+        float factor = (float) Tile.getZoomFp8(nextLevel) / Tile.getZoomFp8(mZoomLevel);
+        int panX = (int) (mPanningX * factor);
+        int panY = (int) (mPanningY * factor);
+        int i1 = ij_for_xy(-panX - mMiddleX);
+        int j1 = ij_for_xy(-panY - mMiddleY);
+        int i2 = ij_for_xy(-panX + mMiddleX - 1) + 1;
+        int j2 = ij_for_xy(-panY + mMiddleY - 1) + 1;
+        float ci = (float) -panX / SZ - 0.5f;
+        float cj = (float) -panY / SZ - 0.5f;
+
+        final TileMap cache = mTileCache;
+        final int w = i2 - i1;
+        for (int index : farthestFirst(i1, j1, w, j2 - j1, ci, cj, 0, 0, 0, 0)) {
+            int i = i1 + index % w;
+            int j = j1 + index / w;
+            long key = Tile.computeKey(i, j);
+            Tile t;
+            synchronized (cache) {
+                t = cache.get(nextLevel, key);
+                if (t == null) {
+                    t = new Tile(key, nextLevel, i, j, maxIter, mFractal);
+                    cache.put(nextLevel, key, t);
+                }
+            }
+            if (t.isCompleted()) continue;
 
-        int k = 0;
-        for (int y = ys; y < y2; y += SZ, j++) {
-            for (int i1 = i, x = xs; x < x2; x += SZ, i1++, k++) {
-                Tile t = requestTile(i1, j);
-                mVisibleTiles[k] = t;
+            // the tile of this level covering it is most likely computed
+            Tile parent = cache.get(mZoomLevel, t.computeLowerLevelKey());
+            t.estimateCost(parent);
+            if (parent != null && JavaMandel.keepIterState()) {
+                t.setParentTile(parent);
             }
+            mTileThread.scheduleIdle(t);
         }
+    }
+
+    /**
+     * Runs from the UI thread.
+     * <p/>
+     * Replaces the prefetched tiles by the ones around the nx*ny visible
+     * tiles starting at i0, j0: a ring of PREFETCH_RING tiles, extended in the
+     * direction the view is being panned to. The ones closest to where the
+     * view is heading are computed first.
+     */
+    private void prefetchAround(int i0, int j0, int nx, int ny) {
+        if (mTileThread == null) return;
+        mTileThread.clearPrefetch();
+
+        // the view moves the opposite way of the panning offset
+        float leadI = -mPanVelocityX * PREFETCH_LOOKAHEAD_MS / Tile.SIZE;
+        float leadJ = -mPanVelocityY * PREFETCH_LOOKAHEAD_MS / Tile.SIZE;
+
+        int i1 = i0 - PREFETCH_RING - prefetchLead(-leadI);
+        int i2 = i0 + nx + PREFETCH_RING + prefetchLead(leadI);
+        int j1 = j0 - PREFETCH_RING - prefetchLead(-leadJ);
+        int j2 = j0 + ny + PREFETCH_RING + prefetchLead(leadJ);
+
+        // where the center of the view should be by then
+        float ci = i0 + (nx - 1) / 2f + leadI;
+        float cj = j0 + (ny - 1) / 2f + leadJ;
 
-        for (; k < nn; k++) {
-            mVisibleTiles[k] = null;
+        int[] order = farthestFirst(i1, j1, i2 - i1, j2 - j1, ci, cj, i0, j0, nx, ny);
+
+        // the thread takes the most recently scheduled first, so closest last
+        final int w = i2 - i1;
+        for (int index : order) {
+            requestTile(i1 + index % w, j1 + index / w, true /*prefetch*/);
+        }
+    }
+
+    /**
+     * Sorts the w*h tiles starting at i1, j1 by decreasing distance to ci, cj,
+     * leaving out the nx*ny ones starting at i0, j0. Returns the tile indexes,
+     * (j - j1) * w + (i - i1).
+     */
+    private int[] farthestFirst(int i1, int j1, int w, int h, float ci, float cj,
+            int i0, int j0, int nx, int ny) {
+        // high 32 bits are the squared distance, low bits the index
+        long[] order = new long[w * h];
+        int n = 0;
+        for (int j = j1; j < j1 + h; j++) {
+            for (int i = i1; i < i1 + w; i++) {
+                if (i >= i0 && i < i0 + nx && j >= j0 && j < j0 + ny) continue;
+                float di = i - ci;
+                float dj = j - cj;
+                long d = (long) ((di * di + dj * dj) * 16);
+                order[n++] = (d << 32) | ((j - j1) * w + (i - i1));
+            }
+        }
+        Arrays.sort(order, 0, n);
+
+        int[] result = new int[n];
+        for (int k = 0; k < n; k++) {
+            result[k] = (int) (order[n - 1 - k] & 0x7FFFFFFF);
+        }
+        return result;
+    }
+
+    private static int prefetchLead(float tiles) {
+        if (tiles <= 0) return 0;
+        return Math.min(PREFETCH_MAX_LEAD, (int) Math.ceil(tiles));
+    }
+
+    // ---------- buddhabrot ----------------------------
+
+    /**
+     * Buddhabrot: the largest density per sample of each zoom level, set by the
+     * first render that completes at that level. All the renders of a level
+     * are colored with it, whatever area they cover, so that their tiles match.
+     * Static like the tile caches kept across configuration changes.
+     */
+    private static final HashMap<Integer, Double> sBuddhaMax = new HashMap<Integer, Double>();
+
+    /**
+     * Runs from the UI thread.
+     * Restarts the Buddhabrot renderer for the tiles of the nx*ny area starting
+     * at i, j that are not completed yet. Only their bounding box is rendered,
+     * the completed ones are left alone.
+     */
+    private void startBuddhabrot(int i, int j, int nx, int ny) {
+        stopBuddhabrot();
+
+        final TileMap cache = mTileCache;
+        int i0 = i + nx;
+        int j0 = j + ny;
+        int i1 = i - 1;
+        int j1 = j - 1;
+        for (int y = j; y < j + ny; y++) {
+            for (int x = i; x < i + nx; x++) {
+                Tile t = cache.get(mZoomLevel, Tile.computeKey(x, y));
+                if (t != null && !t.isCompleted()) {
+                    i0 = Math.min(i0, x);
+                    j0 = Math.min(j0, y);
+                    i1 = Math.max(i1, x);
+                    j1 = Math.max(j1, y);
+                }
+            }
+        }
+        if (i1 < i0) return;
+
+        final int bw = i1 - i0 + 1;
+        final int bh = j1 - j0 + 1;
+        Tile[] tiles = new Tile[bw * bh];
+        for (int y = 0, k = 0; y < bh; y++) {
+            for (int x = 0; x < bw; x++, k++) {
+                Tile t = cache.get(mZoomLevel, Tile.computeKey(i0 + x, j0 + y));
+                if (t != null && !t.isCompleted()) tiles[k] = t;
+            }
+        }
+
+        mBuddhabrot = new BuddhabrotRenderer(i0, j0, bw, bh, tiles);
+        mBuddhabrot.start();
+    }
+
+    /** Runs from the UI thread. */
+    private void stopBuddhabrot() {
+        BuddhabrotRenderer b = mBuddhabrot;
+        mBuddhabrot = null;
+        if (b != null) {
+            b.waitForStop();
+        }
+    }
+
+    /**
+     * Renders the Buddhabrot density of a rectangle of tiles.
+     * <p/>
+     * The density of the whole rectangle is computed at once by {@link Buddhabrot}
+     * worker threads, one per core, using the same pixel coordinates as
+     * {@link Tile#compute()}. This thread periodically merges their histograms
+     * and copies each tile's part in its bitmap, the last update completes the tiles.
+     * Tiles that are null in the array are rendered but not updated.
+     * <p/>
+     * The tiles are charged in the TileThread memory budget at each update so
+     * that they get reclaimed like the computed ones, and the densities are
+     * scaled with sBuddhaMax.
+     */
+    private class BuddhabrotRenderer extends BaseThread {
+
+        private final int mLevel;
+        private final int mNx;
+        private final int mNy;
+        private final Tile[] mTiles;
+        private final TileThread mTileThread;
+        private final Buddhabrot mRenderer;
+        private int[] mDensity;
+        private int[] mColors;
+
+        public BuddhabrotRenderer(int i, int j, int nx, int ny, Tile[] tiles) {
+            super("BuddhabrotThread");
+            mLevel = mZoomLevel;
+            mNx = nx;
+            mNy = ny;
+            mTiles = tiles;
+            mTileThread = TileContext.this.mTileThread;
+
+            final int SZ = Tile.SIZE;
+            int zoomFp8 = Tile.getZoomFp8(mZoomLevel);
+            double inv_zoom = 128.0 / zoomFp8;
+            double step = inv_zoom / SZ;
+            int sx = nx * SZ;
+            int sy = ny * SZ;
+
+            mRenderer = new Buddhabrot(
+                    i * inv_zoom, step,
+                    j * inv_zoom, step,
+                    sx, sy,
+                    BUDDHA_MAX_ITER,
+                    (long) sx * sy * BUDDHA_SAMPLES_PER_PIXEL,
+                    Runtime.getRuntime().availableProcessors());
+        }
+
+        @Override
+        public void clear() {
+        }
+
+        @Override
+        protected void startRun() {
+            logd("Buddhabrot: %d samples, %d threads",
+                    mRenderer.getNumSamples(), mRenderer.getNumThreads());
+            int n = mNx * mNy * Tile.SIZE * Tile.SIZE;
+            mDensity = new int[n];
+            mColors = new int[n];
+            mRenderer.start();
+        }
+
+        @Override
+        protected void runIteration() {
+            waitFor(BUDDHA_UPDATE_MS);
+            if (!mContinue) return;
+
+            boolean done = mRenderer.isDone();
+            int max = mRenderer.merge(mDensity);
+            long sampled = mRenderer.getNumSampled();
+            Double perSample;
+            synchronized (sBuddhaMax) {
+                perSample = sBuddhaMax.get(mLevel);
+                if (perSample == null && done && sampled > 0) {
+                    perSample = Double.valueOf((double) max / sampled);
+                    sBuddhaMax.put(mLevel, perSample);
+                }
+            }
+            if (perSample != null) {
+                // denser areas than the first render of the level saturate
+                max = (int) Math.ceil(perSample.doubleValue() * sampled);
+            }
+            Buddhabrot.toColors(mDensity, mDensity.length, max, mColors);
+
+            final int SZ = Tile.SIZE;
+            final int stride = mNx * SZ;
+            for (int y = 0, k = 0; y < mNy; y++) {
+                for (int x = 0; x < mNx; x++, k++) {
+                    Tile t = mTiles[k];
+                    if (t != null) {
+                        t.fromDensity(mColors, y * SZ * stride + x * SZ, stride, done);
+                        if (mTileThread != null) mTileThread.scheduleCharge(t);
+                        invalidateTile(t);
+                    }
+                }
+            }
+
+            if (done) {
+                logd("Buddhabrot: completed.");
+                setCompleted();
+            }
+        }
+
+        @Override
+        protected void endRun() {
+            mRenderer.stop();
         }
     }
 
@@ -600,99 +1205,145 @@ public class TileContext {
 
     /** Runs from the UI thread */
     private Tile requestTile(int i, int j) {
-        int key;
+        return requestTile(i, j, false /*prefetch*/);
+    }
+
+    /**
+     * Runs from the UI thread.
+     * A prefetched tile is not visible yet: it gets no preview from the lower
+     * zoom level and it's computed after the visible ones.
+     */
+    private Tile requestTile(int i, int j, boolean prefetch) {
+        long key = Tile.computeKey(i, j);
         Tile t = null;
-        synchronized (mLevelTileCaches) {
-            TileCache cache = mLevelTileCaches.get(mZoomLevel);
-            if (cache == null) {
-                mLevelTileCaches.put(mZoomLevel, cache = new TileCache());
-            }
-            key = Tile.computeKey(i, j);
-            t = cache.get(key);
+        final TileMap cache = mTileCache;
+        synchronized (cache) {
+            t = cache.get(mZoomLevel, key);
             if (t == null) {
-                t = new Tile(key, mZoomLevel, i, j, mMaxIter);
-                cache.put(key, t);
+                t = new Tile(key, mZoomLevel, i, j, mMaxIter, mFractal);
+                cache.put(mZoomLevel, key, t);
+            } else if (t.getMaxIter() < mMaxIter && t.hasIterState()) {
+                // max_iter was raised since this tile was computed (e.g. the
+                // prefs changed). Continue its non-escaped pixels.
+                t = new Tile(t, mMaxIter);
+                cache.put(mZoomLevel, key, t);
             }
         }
 
+        t.setEpoch(mViewEpoch);
+
         if (!t.isCompleted()) {
-            if (t.getBitmap() == null && mZoomLevel > 0) {
+            if (t.getBitmap() == null && mZoomLevel > 0 && !prefetch) {
                 prepareLowerZoomTile(i, j, t, mZoomLevel);
             }
-            // if there's no bitmap,
-            // try to find a lower-level tile to zoom from
-            /*
-            if (t.getBitmap() == null && mZoomLevel > 0) {
-                int lowerZoomLevel = (mZoomLevel > 1) ? mZoomLevel / 2 : 0;
-                TileCache cache;
-                synchronized (mLevelTileCaches) {
-                    cache = mLevelTileCaches.get(lowerZoomLevel);
-                }
-                if (cache != null) {
-                    key = t.computeLowerLevelKey();
-                    Tile largerTile = cache.get(key);
-                    if (largerTile != null) {
-                        mTileThread.scheduleImgZoom(t, largerTile);
-                    }
-                }
+            if (!prefetch) {
+                // scheduled last so it runs first: the children are sharper
+                prepareHigherZoomTile(i, j, t);
             }
-            */
 
-            mTileThread.schedule(t);
+            if (t.getFractal().isBuddhabrot()) {
+                // computed by the BuddhabrotRenderer started by updateAll
+                return t;
+            }
+            if (prefetch) {
+                mTileThread.schedulePrefetch(t);
+            } else {
+                mTileThread.schedule(t);
+            }
         }
 
         return t;
     }
 
-    /** Runs from the UI thread (only from requestTile). */
+    /**
+     * Runs from the UI thread (only from requestTile).
+     * <p/>
+     * Makes sure the tile of the lower zoom level covering t exists, then
+     * asks the TileThread for a preview of t scaled up from the closest lower
+     * level tile that has a bitmap, at most PREVIEW_MAX_LEVELS levels up.
+     * Only cache lookups run here, the bitmaps are done by the TileThread.
+     */
     private void prepareLowerZoomTile(int i, int j, Tile t, int zoomLevel) {
         if (zoomLevel == 0) return;
 
-        TileCache cache = null;
-        Tile largerTile = null;
+        final TileMap cache = mTileCache;
         int lowerZoomLevel = (zoomLevel > 1) ? zoomLevel / 2 : 0;
-        synchronized (mLevelTileCaches) {
-            cache = mLevelTileCaches.get(lowerZoomLevel);
-        }
-        if (cache != null) {
-            int key = t.computeLowerLevelKey();
-            largerTile = cache.get(key);
+        if (!cache.hasLevel(lowerZoomLevel)) return;
+
+        long key = t.computeLowerLevelKey();
+        Tile largerTile;
+        synchronized (cache) {
+            largerTile = cache.get(lowerZoomLevel, key);
             if (largerTile == null) {
                 // create it
-                int i1 = i >> 1;
-                int j1 = i >> 1;
-
                 if (DEBUG) logd(TAG, "preZoom: " + t.toString());
 
-                largerTile = new Tile(key, lowerZoomLevel, i1, j1, getMaxIter(lowerZoomLevel));
-                cache.put(key, largerTile);
-                prepareLowerZoomTile(i1, j1, largerTile, lowerZoomLevel);
+                largerTile = new Tile(key, lowerZoomLevel, i >> 1, j >> 1,
+                        getMaxIter(lowerZoomLevel), mFractal);
+                cache.put(lowerZoomLevel, key, largerTile);
             }
         }
-        if (largerTile != null) {
-            // finally use the lower-level zoom tile to create this one
-            t.zoomForLowerLevel(largerTile);
+
+        // its iteration counts tell how expensive this one will be
+        t.estimateCost(largerTile);
+
+        // and let the computation reuse its samples if it has them
+        if (JavaMandel.keepIterState()) {
+            t.setParentTile(largerTile);
+        }
+
+        // finally find something to zoom from
+        Tile source = largerTile;
+        for (int n = 1;
+                source.getBitmap() == null && n < PREVIEW_MAX_LEVELS && lowerZoomLevel > 0;
+                n++) {
+            lowerZoomLevel = (lowerZoomLevel > 1) ? lowerZoomLevel / 2 : 0;
+            source = cache.get(lowerZoomLevel, Tile.computeLowerLevelKey(source.getKey()));
+            if (source == null) return;
+        }
+        if (source.getBitmap() != null) {
+            mTileThread.scheduleImgZoom(t, source);
+        }
+    }
+
+    /**
+     * Runs from the UI thread (only from requestTile).
+     * <p/>
+     * When the 4 tiles of the next zoom level covering t all have a bitmap,
+     * e.g. when zooming out of an explored area, asks the TileThread to scale
+     * them down into t. That can even complete t, see Tile.zoomFromChildren.
+     * Only cache lookups run here.
+     */
+    private void prepareHigherZoomTile(int i, int j, Tile t) {
+        final TileMap cache = mTileCache;
+        final int higherZoomLevel = mZoomLevel == 0 ? 1 : mZoomLevel * 2;
+        if (!cache.hasLevel(higherZoomLevel)) return;
+
+        Tile[] children = null;
+        for (int q = 0; q < 4; q++) {
+            Tile c = cache.get(higherZoomLevel,
+                    Tile.computeKey(2 * i + (q & 1), 2 * j + (q >> 1)));
+            if (c == null || c.getBitmap() == null) return;
+            if (children == null) children = new Tile[4];
+            children[q] = c;
         }
+        mTileThread.scheduleChildrenZoom(t, children);
     }
 
     /** Runs from the UI thread. Called when restoring state. */
     private void cacheTile(Tile t) {
-        synchronized (mLevelTileCaches) {
-            TileCache cache = mLevelTileCaches.get(mZoomLevel);
-            if (cache == null) {
-                mLevelTileCaches.put(mZoomLevel, cache = new TileCache());
-            }
-            cache.put(t.hashCode(), t);
-        }
+        mTileCache.put(mZoomLevel, t.getKey(), t);
     }
 
     /** Runs from the UI thread (from fly mode or keypress). */
     private void clearTileCache() {
-        synchronized (mLevelTileCaches) {
-            mLevelTileCaches.clear();
-            mVisibleTiles = null;
-            mTileThread.clear();
+        for (TileMap cache : mFractalCaches.values()) {
+            cache.clear();
         }
+        mVisibleTiles = null;
+        mGridNx = 0;
+        mTileThread.clear();
+        TileEdges.getInstance().clear();
     }
 
     /** Runs from the UI thread */
@@ -705,48 +1356,50 @@ public class TileContext {
         }
     }
 
-    /** Runs from the UI thread or TileThread */
+    /**
+     * Runs from the UI thread or TileThread.
+     * <p/>
+     * Doesn't invalidate the view right away: the tile is added to the dirty
+     * region, which DirtyFlushRunnable invalidates at the next frame. That's a
+     * single invalidate however many tiles and mirrors complete in between.
+     */
     private void invalidateTile(Tile tile) {
         if (tile == null) return;
-        if (mTileView != null) {
-            mViewNeedsInvalidate = false;
-            final int SZ = Tile.SIZE;
-            int x = tile.getVirtualX() + mMiddleX + mPanningX;
-            int y = tile.getVirtualY() + mMiddleY + mPanningY;
-            if (DEBUG) logd("Invalidate %s @ (%d,%d)", tile.toString(), x, y);
-            int x1 = x + SZ;
-            int y1 = y + SZ;
-            if (x < 0) x = 0;
-            if (y < 0) y = 0;
-            mTileView.postInvalidate(x, y, x1, y1);
-        } else {
+        if (mTileView == null) {
             mViewNeedsInvalidate = true;
+            return;
+        }
+        final int SZ = Tile.SIZE;
+        int x = tile.getVirtualX();
+        int y = tile.getVirtualY();
+        if (DEBUG) logd("Invalidate %s @ (%d,%d)", tile.toString(), x, y);
+        boolean post;
+        synchronized (mDirtyTiles) {
+            mDirtyTiles.union(x, y, x + SZ, y + SZ);
+            post = !mDirtyFlushPosted;
+            mDirtyFlushPosted = true;
         }
+        if (post) mHandler.postDelayed(mDirtyFlushRunnable, FRAME_MS);
     }
 
     /** Runs from the TileThread */
     private class TileCompletedCallback implements ITileCompleted {
         public void onTileCompleted(Tile tile) {
-            // the callback may be fired just after a zoom level change, in which case
-            // we'll ignore the update. however it cannot happen during a zoom change.
-            synchronized (mZoomLock) {
-                if (mZoomLevel == tile.getZoomLevel()) {
-                    invalidateTile(tile);
-
-                    // do we want the mirror?
-                    int mirrorKey = tile.computeMirrorKey();
-                    TileCache cache = null;
-                    synchronized (mLevelTileCaches) {
-                        cache = mLevelTileCaches.get(mZoomLevel);
-                    }
-                    if (cache != null) {
-                        Tile mirror = cache.get(mirrorKey);
-                        if (mirror != null && !mirror.isCompleted()) {
-                            mirror.fromMirror(tile);
-                            invalidateTile(mirror);
-                        }
-                    }
-                }
+            // the callback may be fired just after a zoom level or fractal change,
+            // in which case the tile was requested for a previous view: ignore it.
+            if (tile.getEpoch() != mViewEpoch) return;
+
+            invalidateTile(tile);
+
+            // do we want the mirror?
+            if (!tile.getFractal().hasMirror()) return;
+            long mirrorKey = tile.computeMirrorKey();
+            Tile mirror = mTileCache.get(tile.getZoomLevel(), mirrorKey);
+            // fromMirror checks the mirror is of the same fractal and max_iter,
+            // in case the view changed since the check above
+            if (mirror != null && !mirror.isCompleted()) {
+                mirror.fromMirror(tile);
+                if (tile.getEpoch() == mViewEpoch) invalidateTile(mirror);
             }
         }
     }
@@ -761,24 +1414,21 @@ public class TileContext {
             int oldZoomLevel = mZoomLevel;
             if (delta > 0) {
                 // zoom in by 1 (i.e. x2)
-                synchronized (mZoomLock) {
-                    if (mZoomLevel == 0) {
-                        mZoomLevel = 1;
-                    } else {
-                        mZoomLevel *= 2;
-                    }
+                if (mZoomLevel == 0) {
+                    mZoomLevel = 1;
+                } else {
+                    mZoomLevel *= 2;
                 }
             } else if (delta < 0 && mZoomLevel > 0) {
                 // zoom out by 1 (i.e. x0.5)
-                synchronized (mZoomLock) {
-                    if (mZoomLevel > 1) {
-                        mZoomLevel /= 2;
-                    } else {
-                        mZoomLevel = 0;
-                    }
+                if (mZoomLevel > 1) {
+                    mZoomLevel /= 2;
+                } else {
+                    mZoomLevel = 0;
                 }
             }
             if (mZoomLevel != oldZoomLevel) {
+                mViewEpoch++;
                 float oldZoom = Tile.getZoomFp8(oldZoomLevel);
                 float newZoom = Tile.getZoomFp8(mZoomLevel);
                 float factor = newZoom / oldZoom;
@@ -819,6 +1469,47 @@ public class TileContext {
             mZoomer.show();
             mHideZoomAfterMs = SystemClock.uptimeMillis() + ZOOM_HIDE_DELAY_MS;
             mHandler.postAtTime(mHideZoomRunnable, mHideZoomAfterMs + 10);
+
+            // the user may be about to zoom in
+            mHandler.removeCallbacks(mIdleRunnable);
+            mHandler.post(mIdleRunnable);
+        }
+    }
+
+    /**
+     * Precomputes the next zoom level once the visible tiles are done.
+     * Posted when the view stops moving or the zoomer is shown.
+     */
+    private class IdleRunnable implements Runnable {
+        public void run() {
+            if (mTileThread == null) return;
+            if (mTileThread.hasPending()) {
+                mHandler.postDelayed(this, IDLE_DELAY_MS);
+            } else {
+                precomputeNextLevel();
+            }
+        }
+    }
+
+    /** Invalidates the dirty region of the view, see invalidateTile(). Runs from the UI thread. */
+    private class DirtyFlushRunnable implements Runnable {
+        public void run() {
+            final Rect r = mTempDirty;
+            synchronized (mDirtyTiles) {
+                r.set(mDirtyTiles);
+                mDirtyTiles.setEmpty();
+                mDirtyFlushPosted = false;
+            }
+            if (r.isEmpty()) return;
+            if (mTileView == null) {
+                mViewNeedsInvalidate = true;
+                return;
+            }
+            int dx = mMiddleX + mPanningX;
+            int dy = mMiddleY + mPanningY;
+            mViewNeedsInvalidate = false;
+            mTileView.invalidate(Math.max(0, r.left + dx), Math.max(0, r.top + dy),
+                    r.right + dx, r.bottom + dy);
         }
     }
 
@@ -856,8 +1547,15 @@ public class TileContext {
     private class UpdateCaptionRunnable implements Runnable {
         public void run() {
             float zoom = 0 - (float) Tile.getZoomFp8(mZoomLevel);
-            setTextCaption("x%1$d, Iter:%2$d, c:%3$.5f, %4$.5f, ", mZoomLevel,
-                            mMaxIter, mPanningX / zoom, mPanningY / zoom);
+            Fractal f = mFractal;
+            if (f.isJulia()) {
+                setTextCaption("x%1$d, Iter:%2$d, z:%3$.5f, %4$.5f, %5$s", mZoomLevel,
+                                mMaxIter, mPanningX / zoom, mPanningY / zoom, f.toString());
+            } else {
+                setTextCaption("x%1$d, Iter:%2$d, c:%3$.5f, %4$.5f, %5$s", mZoomLevel,
+                                mMaxIter, mPanningX / zoom, mPanningY / zoom,
+                                f.usesFormula() ? f.toString() : "");
+            }
             if (mNeedUpdateCaption && mHandler != null) {
                 mHandler.post(mUpdateCaptionRunnable);
             }
@@ -1028,6 +1726,9 @@ public class TileContext {
             switch(mCurrentInst) {
             case FLY_INIT:
                 if (DEBUG) logd("FlyMode: Init");
+                if (!Fractal.MANDELBROT_SET.equals(mFractal)) {
+                    setFractal(Fractal.MANDELBROT_SET, 0, 0, 0);
+                }
                 mZoomLevel = 0;
                 mPanningX  = 0;
                 mPanningY  = 0;
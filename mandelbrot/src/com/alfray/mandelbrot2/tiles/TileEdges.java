@@ -0,0 +1,184 @@
+/*
+ * Copyright 2008 (c) ralfoide gmail com, 2008
+ * Project: Mandelbrot
+ * License: GPL version 3 or any later version
+ */
+
+package com.alfray.mandelbrot2.tiles;
+
+import com.alfray.mandelbrot2.Fractal;
+import com.alfray.mandelbrot2.JavaMandel;
+
+/**
+ * Edge rows and columns of iteration counts published by completed tiles.
+ * <p/>
+ * Adjacent tiles are computed independently. When a tile completes it publishes
+ * its 4 edges here, so that a tile being computed can look at the pixels just
+ * outside of its border for free. Each entry is 4*SIZE ints (2 KB): top row,
+ * bottom row, left column, right column, followed by the max_iter used.
+ * <p/>
+ * Entries are not tied to the tile bitmaps: they outlive reclaimed tiles and
+ * are kept in a bounded direct-mapped table keyed by zoom level and 64-bit tile
+ * key: a new entry replaces whichever one was in its slot. That only costs a
+ * missed interior check. Accessed from both the UI thread and the TileThread.
+ * <p/>
+ * Edges are only used by the interior check of the plain Mandelbrot set, see
+ * {@link #accepts(Tile)}: other tiles, or all of them when the interior_tiles
+ * pref is off, publish nothing and allocate nothing.
+ */
+public class TileEdges {
+
+    /** Number of slots, a power of 2. */
+    private static final int MAX_ENTRIES = 1024;
+
+    public static final int TOP    = 0;
+    public static final int BOTTOM = 1;
+    public static final int LEFT   = 2;
+    public static final int RIGHT  = 3;
+
+    private static final int SZ = Tile.SIZE;
+    private static final int LEN = 4 * SZ + 1;
+
+    private static TileEdges sThis = new TileEdges();
+
+    private final int[] mLevels = new int[MAX_ENTRIES];
+    private final long[] mKeys = new long[MAX_ENTRIES];
+    private final int[][] mEdges = new int[MAX_ENTRIES][];
+
+    private TileEdges() {
+    }
+
+    public static TileEdges getInstance() {
+        return sThis;
+    }
+
+    private static int slot(int zoomLevel, long key) {
+        return TileMap.hash(zoomLevel, key) & (MAX_ENTRIES - 1);
+    }
+
+    public void clear() {
+        synchronized (mEdges) {
+            for (int k = 0; k < MAX_ENTRIES; k++) {
+                mEdges[k] = null;
+            }
+        }
+    }
+
+    /**
+     * True if the edges of that tile are used: the interior_tiles pref is on and
+     * it's a tile of the Mandelbrot set. The edges are not keyed by fractal.
+     */
+    public boolean accepts(Tile tile) {
+        return JavaMandel.interiorTiles() && Fractal.MANDELBROT_SET.equals(tile.getFractal());
+    }
+
+    /** Publishes the edges of a completed tile from its SIZE*SIZE iteration counts. */
+    public void publish(Tile tile, int[] iters) {
+        if (!accepts(tile)) return;
+        int[] e = new int[LEN];
+        for (int k = 0; k < SZ; k++) {
+            e[TOP    * SZ + k] = iters[k];
+            e[BOTTOM * SZ + k] = iters[(SZ - 1) * SZ + k];
+            e[LEFT   * SZ + k] = iters[k * SZ];
+            e[RIGHT  * SZ + k] = iters[k * SZ + SZ - 1];
+        }
+        e[LEN - 1] = tile.getMaxIter();
+        put(tile, e);
+    }
+
+    /**
+     * Publishes the edges of a completed tile from its SIZE*SIZE iteration counts
+     * biased by -128, as returned by the fp16/fp32 kernels.
+     */
+    public void publish(Tile tile, byte[] iters3) {
+        if (!accepts(tile)) return;
+        int[] e = new int[LEN];
+        for (int k = 0; k < SZ; k++) {
+            e[TOP    * SZ + k] = iters3[k] + 128;
+            e[BOTTOM * SZ + k] = iters3[(SZ - 1) * SZ + k] + 128;
+            e[LEFT   * SZ + k] = iters3[k * SZ] + 128;
+            e[RIGHT  * SZ + k] = iters3[k * SZ + SZ - 1] + 128;
+        }
+        e[LEN - 1] = tile.getMaxIter();
+        put(tile, e);
+    }
+
+    /** Publishes the edges of a completed tile that has the same count everywhere. */
+    public void publishUniform(Tile tile, int iter) {
+        if (!accepts(tile)) return;
+        int[] e = new int[LEN];
+        for (int k = 0; k < LEN - 1; k++) {
+            e[k] = iter;
+        }
+        e[LEN - 1] = tile.getMaxIter();
+        put(tile, e);
+    }
+
+    private void put(Tile tile, int[] e) {
+        final int z = tile.getZoomLevel();
+        final long key = tile.getKey();
+        final int slot = slot(z, key);
+        synchronized (mEdges) {
+            mLevels[slot] = z;
+            mKeys[slot] = key;
+            mEdges[slot] = e;
+        }
+    }
+
+    /**
+     * Returns the edges published by tile (i, j) at this zoom level if they
+     * were computed with this maxIter, or null.
+     */
+    public int[] get(int zoomLevel, int i, int j, int maxIter) {
+        final long key = Tile.computeKey(i, j);
+        final int slot = slot(zoomLevel, key);
+        int[] e;
+        synchronized (mEdges) {
+            e = mEdges[slot];
+            if (mKeys[slot] != key || mLevels[slot] != zoomLevel) e = null;
+        }
+        return (e != null && e[LEN - 1] == maxIter) ? e : null;
+    }
+
+    /**
+     * Checks whether the ring of pixels just outside of the tile border,
+     * taken from the edges published by its 8 neighbours, all have the
+     * given iteration count.
+     * <p/>
+     * When this is true for max_iter, the whole tile is inside the set: the set
+     * is full (its complement is connected) so a closed ring of pixels in the set
+     * encloses only pixels in the set, sampling errors notwithstanding.
+     */
+    public boolean isSurroundedBy(Tile tile, int iter) {
+        final int z = tile.getZoomLevel();
+        final int i = tile.getI();
+        final int j = tile.getJ();
+        final int m = tile.getMaxIter();
+
+        // the 4 sides
+        if (!isUniform(get(z, i, j - 1, m), BOTTOM, iter)) return false;
+        if (!isUniform(get(z, i, j + 1, m), TOP, iter)) return false;
+        if (!isUniform(get(z, i - 1, j, m), RIGHT, iter)) return false;
+        if (!isUniform(get(z, i + 1, j, m), LEFT, iter)) return false;
+
+        // the 4 corners
+        if (!isCorner(get(z, i - 1, j - 1, m), BOTTOM, SZ - 1, iter)) return false;
+        if (!isCorner(get(z, i + 1, j - 1, m), BOTTOM, 0, iter)) return false;
+        if (!isCorner(get(z, i - 1, j + 1, m), TOP, SZ - 1, iter)) return false;
+        if (!isCorner(get(z, i + 1, j + 1, m), TOP, 0, iter)) return false;
+
+        return true;
+    }
+
+    private static boolean isUniform(int[] e, int side, int iter) {
+        if (e == null) return false;
+        for (int k = side * SZ, n = k + SZ; k < n; k++) {
+            if (e[k] != iter) return false;
+        }
+        return true;
+    }
+
+    private static boolean isCorner(int[] e, int side, int index, int iter) {
+        return e != null && e[side * SZ + index] == iter;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2008 (c) ralfoide gmail com, 2008
+ * Project: Mandelbrot
+ * License: GPL version 3 or any later version
+ */
+
+package com.alfray.mandelbrot2.tiles;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The tiles of all the zoom levels of a fractal, keyed by the zoom level and
+ * the 64-bit tile hash key from {@link Tile#computeKey(int, int)}. Both are
+ * stored as primitives, nothing gets boxed.
+ * <p/>
+ * This is an open-addressing hash table (linear probing, at most half full).
+ * Lookups take no lock and can run from any thread: they see the table as
+ * it was when they started, possibly missing a tile being added at the same
+ * time. Writers synchronize on the map, which is also how callers make a
+ * get-then-put atomic.
+ * <p/>
+ * Tiles are never removed one by one, the map can only be cleared.
+ */
+public class TileMap {
+
+    private static final int MIN_CAPACITY = 256;
+
+    /**
+     * A table never changes size: it's replaced by a larger copy when it gets
+     * half full. A level and key are written once, before their slot gets a
+     * tile, and a slot with a tile always keeps one.
+     */
+    private static class Table {
+        final int[] mLevels;
+        final long[] mKeys;
+        final AtomicReferenceArray<Tile> mTiles;
+        final int mMask;
+        int mSize;
+
+        public Table(int capacity) {
+            mLevels = new int[capacity];
+            mKeys = new long[capacity];
+            mTiles = new AtomicReferenceArray<Tile>(capacity);
+            mMask = capacity - 1;
+        }
+    }
+
+    private volatile Table mTable;
+    /** Zoom levels that have tiles, see levelBit() */
+    private volatile long mLevelMask;
+
+    public TileMap() {
+        mTable = new Table(MIN_CAPACITY);
+    }
+
+    /** Zoom levels are 0 or powers of 2: bit 0 for level 0, bit n+1 for level 2^n. */
+    private static long levelBit(int zoomLevel) {
+        return zoomLevel == 0 ? 1 : 1L << (32 - Integer.numberOfLeadingZeros(zoomLevel));
+    }
+
+    /** True if at least one tile of that zoom level has been added. */
+    public boolean hasLevel(int zoomLevel) {
+        return (mLevelMask & levelBit(zoomLevel)) != 0;
+    }
+
+    /** Hash of a zoom level and tile key, also used by TileEdges. */
+    static int hash(int zoomLevel, long key) {
+        key ^= (long) zoomLevel * 0x9E3779B97F4A7C15L;
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /** Returns the tile for that level and key or null. Lock-free, runs from any thread. */
+    public Tile get(int zoomLevel, long key) {
+        final Table t = mTable;
+        final int mask = t.mMask;
+        for (int slot = hash(zoomLevel, key) & mask; ; slot = (slot + 1) & mask) {
+            Tile tile = t.mTiles.get(slot);
+            if (tile == null) return null;
+            if (t.mKeys[slot] == key && t.mLevels[slot] == zoomLevel) return tile;
+        }
+    }
+
+    /** Adds the tile or replaces the one with the same level and key. */
+    public synchronized void put(int zoomLevel, long key, Tile tile) {
+        mLevelMask |= levelBit(zoomLevel);
+        Table t = mTable;
+        if (insert(t, zoomLevel, key, tile) && 2 * t.mSize > t.mMask) {
+            Table t2 = new Table(2 * (t.mMask + 1));
+            for (int slot = 0; slot <= t.mMask; slot++) {
+                Tile tile2 = t.mTiles.get(slot);
+                if (tile2 != null) insert(t2, t.mLevels[slot], t.mKeys[slot], tile2);
+            }
+            mTable = t2;
+        }
+    }
+
+    /** Removes all the tiles. */
+    public synchronized void clear() {
+        mTable = new Table(MIN_CAPACITY);
+        mLevelMask = 0;
+    }
+
+    /** Returns true if the key was new. */
+    private static boolean insert(Table t, int zoomLevel, long key, Tile tile) {
+        final int mask = t.mMask;
+        for (int slot = hash(zoomLevel, key) & mask; ; slot = (slot + 1) & mask) {
+            if (t.mTiles.get(slot) == null) {
+                // the level and key must be visible before the tile is
+                t.mLevels[slot] = zoomLevel;
+                t.mKeys[slot] = key;
+                t.mTiles.set(slot, tile);
+                t.mSize++;
+                return true;
+            }
+            if (t.mKeys[slot] == key && t.mLevels[slot] == zoomLevel) {
+                t.mTiles.set(slot, tile);
+                return false;
+            }
+        }
+    }
+}
@@ -6,26 +6,70 @@
 
 package com.alfray.mandelbrot2.tiles;
 
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.ListIterator;
 
 import android.graphics.Bitmap;
 import android.util.Log;
 
+import com.alfray.mandelbrot2.JavaMandel;
+import com.alfray.mandelbrot2.Mandel_Java;
 import com.alfray.mandelbrot2.util.BaseThread;
 
+/**
+ * Computes the scheduled tiles, most recently scheduled first.
+ * <p/>
+ * On a multi-core device the tiles are computed in batches of one tile per
+ * core on the {@link Mandel_Java} pool. A batch is made of the most expensive
+ * of the recently scheduled tiles, as estimated by {@link Tile#getEstimatedCost()},
+ * and they are handed out longest first: a single black tile started last
+ * would otherwise keep one core busy while the others are idle.
+ * <p/>
+ * Prefetched tiles, the ones just outside of the view, are only computed
+ * when there are no visible tiles pending. They can be cancelled at any time.
+ * Previews, tiles scaled up from a lower zoom level or down from the next
+ * one while they are computed, come before everything else.
+ * Idle tiles, the ones of another zoom level computed in advance, come last.
+ * Either way a lower priority tile never delays a visible one by more than
+ * the batch being computed when it's scheduled.
+ */
 public class TileThread extends BaseThread {
 
     private static final String TAG = "TileContext";
     private static boolean DEBUG = false;
 
+    /**
+     * Memory the tiles of mMemoryList can hold before some are reclaimed:
+     * the size of 300 bitmaps, which iteration states count against too.
+     */
+    private static final long MEMORY_BUDGET = 300L * Tile.BMP_BYTES;
+
+    /** At most that many previews are pending, the oldest ones are dropped. */
+    private static final int PREVIEW_BUDGET = 32;
+
+    /** Batches are picked among the COST_WINDOW most recently scheduled tiles. */
+    private static final int COST_WINDOW = 16;
+
+    private static final Comparator<Tile> COST_ORDER = new Comparator<Tile>() {
+        public int compare(Tile t1, Tile t2) {
+            long c1 = t1.getEstimatedCost();
+            long c2 = t2.getEstimatedCost();
+            return c1 > c2 ? -1 : (c1 < c2 ? 1 : 0);
+        }
+    };
+
     private static class ImgZoomEntry {
         private final Tile mCurrentTile;
         private final Tile mLargerTile;
+        private final Tile[] mChildren;
 
-        public ImgZoomEntry(Tile currentTile, Tile largerTile) {
+        public ImgZoomEntry(Tile currentTile, Tile largerTile, Tile[] children) {
             mCurrentTile = currentTile;
             mLargerTile = largerTile;
+            mChildren = children;
         }
 
         public Tile getCurrentTile() {
@@ -35,14 +79,27 @@ public class TileThread extends BaseThread {
         public Tile getLargerTile() {
             return mLargerTile;
         }
+
+        /** The 4 tiles of the next zoom level to scale down, null to scale up the larger tile. */
+        public Tile[] getChildren() {
+            return mChildren;
+        }
     }
 
     /** List of pending tiles to compute */
     private LinkedList<Tile> mPendingList;
+    /** List of pending off-screen tiles, computed when mPendingList is empty */
+    private LinkedList<Tile> mPrefetchList;
+    /** List of tiles computed in advance when there's nothing else to do */
+    private LinkedList<Tile> mIdleList;
     /** List of pending titles for quick image zoom */
     private LinkedList<ImgZoomEntry> mImgZoomList;
     /** List of all tiles created here that have memory to reclaim */
     private LinkedList<Tile> mMemoryList;
+    /** Sum of the memory charges of the tiles in mMemoryList, in bytes */
+    private long mMemoryUsed;
+    /** Tiles whose bitmap was set by another thread, to charge in mMemoryList */
+    private LinkedList<Tile> mChargeList;
     /** Callback to call when a tile computation is completed */
     private ITileCompleted mTileCompleted;
 
@@ -51,7 +108,10 @@ public class TileThread extends BaseThread {
 
         mImgZoomList = new LinkedList<ImgZoomEntry>();
         mPendingList = new LinkedList<Tile>();
+        mPrefetchList = new LinkedList<Tile>();
+        mIdleList = new LinkedList<Tile>();
         mMemoryList = new LinkedList<Tile>();
+        mChargeList = new LinkedList<Tile>();
     }
 
     public boolean hasPending() {
@@ -73,13 +133,36 @@ public class TileThread extends BaseThread {
         mTileCompleted = callback;
     }
 
+    /**
+     * Schedules a preview of t scaled up from largerTile, a tile of a lower zoom
+     * level, at the highest priority. Only the PREVIEW_BUDGET most recent
+     * previews are kept, older ones are most likely not visible anymore.
+     */
     public void scheduleImgZoom(Tile t, Tile largerTile) {
         if (t != null && largerTile != null) {
-            synchronized(mImgZoomList) {
-                mImgZoomList.addFirst(new ImgZoomEntry(t, largerTile));
+            addImgZoom(new ImgZoomEntry(t, largerTile, null));
+        }
+    }
+
+    /**
+     * Schedules a preview of t scaled down from its 4 children at the next
+     * zoom level, see {@link Tile#zoomFromChildren(Tile[])}. Same priority
+     * and budget as scheduleImgZoom.
+     */
+    public void scheduleChildrenZoom(Tile t, Tile[] children) {
+        if (t != null && children != null) {
+            addImgZoom(new ImgZoomEntry(t, null, children));
+        }
+    }
+
+    private void addImgZoom(ImgZoomEntry z) {
+        synchronized(mImgZoomList) {
+            mImgZoomList.addFirst(z);
+            if (mImgZoomList.size() > PREVIEW_BUDGET) {
+                mImgZoomList.removeLast();
             }
-            wakeUp();
         }
+        wakeUp();
     }
 
     public void schedule(Tile t) {
@@ -92,11 +175,73 @@ public class TileThread extends BaseThread {
         }
     }
 
+    /**
+     * Schedules an off-screen tile, at a lower priority than the ones
+     * given to {@link #schedule(Tile)}.
+     */
+    public void schedulePrefetch(Tile t) {
+        if (t != null) {
+            if (DEBUG) Log.d(TAG, "prefetch: " + t.toString());
+            synchronized(mPrefetchList) {
+                mPrefetchList.addFirst(t);
+            }
+            wakeUp();
+        }
+    }
+
+    /** Cancels all the prefetched tiles not computed yet. */
+    public void clearPrefetch() {
+        synchronized(mPrefetchList) {
+            mPrefetchList.clear();
+        }
+    }
+
+    /**
+     * Schedules a tile that isn't requested yet but probably will be,
+     * at the lowest priority.
+     */
+    public void scheduleIdle(Tile t) {
+        if (t != null) {
+            if (DEBUG) Log.d(TAG, "idle: " + t.toString());
+            synchronized(mIdleList) {
+                mIdleList.addFirst(t);
+            }
+            wakeUp();
+        }
+    }
+
+    /**
+     * Charges a tile whose bitmap was set by another thread (e.g. the
+     * Buddhabrot renderer) against the memory budget, so that it can be
+     * reclaimed like the ones computed here. Can be called again each time
+     * its bitmap changes.
+     */
+    public void scheduleCharge(Tile t) {
+        if (t != null) {
+            synchronized(mChargeList) {
+                mChargeList.add(t);
+            }
+            wakeUp();
+        }
+    }
+
+    /** Cancels all the idle tiles not computed yet. */
+    public void clearIdle() {
+        synchronized(mIdleList) {
+            mIdleList.clear();
+        }
+    }
+
     @Override
     public void clear() {
+        synchronized(mImgZoomList) {
+            mImgZoomList.clear();
+        }
         synchronized(mPendingList) {
             mPendingList.clear();
         }
+        clearPrefetch();
+        clearIdle();
     }
 
     @Override
@@ -113,8 +258,18 @@ public class TileThread extends BaseThread {
     protected void runIteration() {
         // -- process pending image zoom tiles
         try {
+            while (true) {
+                Tile c;
+                synchronized(mChargeList) {
+                    c = mChargeList.poll();
+                }
+                if (c == null) break;
+                charge(c);
+            }
+
             // Reclaim some memory.
-            if (mMemoryList.size() > 300) {
+            // A shared uniform bitmap counts once, whatever the number of tiles using it.
+            if (mMemoryUsed + (long) UniformBitmaps.size() * Tile.BMP_BYTES > MEMORY_BUDGET) {
                 reclaimTiles(-1);
             }
 
@@ -127,13 +282,12 @@ public class TileThread extends BaseThread {
                 for (int i = 0 ; i < 2; i++) {
                     try {
                         t = z.getCurrentTile();
-                        t.zoomForLowerLevel(z.getLargerTile());
-                        if (mTileCompleted != null) {
-                            mTileCompleted.onTileCompleted(t);
+                        if (z.getChildren() != null) {
+                            t.zoomFromChildren(z.getChildren());
+                        } else {
+                            t.zoomForLowerLevel(z.getLargerTile());
                         }
-                        if (t.isInMemory()) mMemoryList.remove(t);
-                        mMemoryList.add(t);
-                        t.setInMemory(true);
+                        onCompleted(t);
                         return;
                     } catch (RuntimeException e) {
                         reclaimTiles(t.getZoomLevel());
@@ -144,27 +298,22 @@ public class TileThread extends BaseThread {
             }
 
             // -- process pending tile computations
-            synchronized(mPendingList) {
-                t = mPendingList.poll();
+            Tile[] batch = pollBatch(mPendingList, true /*byCost*/);
+            if (batch == null) {
+                batch = pollBatch(mPrefetchList, false /*byCost*/);
             }
-            if (t != null) {
-                if (DEBUG) Log.d(TAG, "compute: " + t.toString());
-
-                for (int i = 0 ; i < 2; i++) {
-                    try {
-                        t.compute();
-                        if (mTileCompleted != null) {
-                            mTileCompleted.onTileCompleted(t);
-                        }
-                        if (t.isInMemory()) mMemoryList.remove(t);
-                        mMemoryList.add(t);
-                        t.setInMemory(true);
-                        return;
-                    } catch (RuntimeException e) {
-                        reclaimTiles(t.getZoomLevel());
-                    } catch (OutOfMemoryError e) {
-                        reclaimTiles(t.getZoomLevel());
-                    }
+            if (batch == null) {
+                batch = pollBatch(mIdleList, false /*byCost*/);
+            }
+            if (batch != null) {
+                if (batch.length == 0) {
+                    // the pending list changed under us, look again
+                    return;
+                } else if (batch.length == 1) {
+                    if (computeTile(batch[0])) return;
+                } else {
+                    computeBatch(batch);
+                    return;
                 }
             }
 
@@ -177,6 +326,170 @@ public class TileThread extends BaseThread {
         waitForALongTime();
     }
 
+    /**
+     * Number of tiles that can be computed at the same time.
+     * RenderScript has a single allocation so it can only do one at a time.
+     */
+    private int getBatchSize() {
+        if (JavaMandel.useRs() || !JavaMandel.useParallel()) return 1;
+        return Mandel_Java.getNumThreads();
+    }
+
+    /**
+     * Removes the next tiles to compute from that pending list.
+     * <p/>
+     * That's the most recent one when tiles are computed one at a time.
+     * Otherwise it's up to one per core: with byCost the most expensive among
+     * the COST_WINDOW most recent ones, sorted by decreasing cost, else the
+     * most recent ones. Only the visible tiles are worth the cost probes, the
+     * prefetched ones are taken most recent first like one at a time.
+     * <p/>
+     * Returns null if there's nothing pending, or an empty array if the
+     * pending list has been cleared meanwhile.
+     */
+    private Tile[] pollBatch(LinkedList<Tile> list, boolean byCost) {
+        final int maxTiles = getBatchSize();
+        Tile[] window;
+        synchronized(list) {
+            int n = Math.min(COST_WINDOW, list.size());
+            if (n == 0) return null;
+            if (maxTiles == 1) return new Tile[] { list.poll() };
+
+            window = new Tile[n];
+            Iterator<Tile> it = list.iterator();
+            for (int k = 0; k < n; k++) {
+                window[k] = it.next();
+            }
+        }
+
+        if (byCost) {
+            // The cost may need to be probed, do it out of the lock so that the
+            // UI thread can keep scheduling.
+            Arrays.sort(window, COST_ORDER);
+        }
+
+        Tile[] batch = new Tile[Math.min(maxTiles, window.length)];
+        int n = 0;
+        synchronized(list) {
+            for (int k = 0; k < window.length && n < batch.length; k++) {
+                // a tile is scheduled again each time it's requested
+                if (removePending(list, window[k])) {
+                    batch[n++] = window[k];
+                }
+            }
+        }
+
+        if (n < batch.length) {
+            Tile[] b = new Tile[n];
+            System.arraycopy(batch, 0, b, 0, n);
+            batch = b;
+        }
+        return batch;
+    }
+
+    /**
+     * Removes all occurrences of that very tile from the pending list.
+     * Returns false if it wasn't there anymore.
+     * Caller must hold the list lock.
+     */
+    private boolean removePending(LinkedList<Tile> list, Tile t) {
+        boolean found = false;
+        for (Iterator<Tile> it = list.iterator(); it.hasNext(); ) {
+            if (it.next() == t) {
+                it.remove();
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Computes a tile on this thread, freeing memory and retrying once
+     * if it fails. Returns false if it failed twice.
+     */
+    private boolean computeTile(Tile t) {
+        if (DEBUG) Log.d(TAG, "compute: " + t.toString());
+
+        for (int i = 0 ; i < 2; i++) {
+            try {
+                t.compute();
+                onCompleted(t);
+                return true;
+            } catch (RuntimeException e) {
+                reclaimTiles(t.getZoomLevel());
+            } catch (OutOfMemoryError e) {
+                reclaimTiles(t.getZoomLevel());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the tiles of the batch in parallel, in the batch order, then
+     * notifies them from this thread. The ones that failed are retried here
+     * one at a time.
+     */
+    private void computeBatch(final Tile[] batch) {
+        if (DEBUG) Log.d(TAG, "compute batch: " + Integer.toString(batch.length));
+
+        final boolean[] failed = new boolean[batch.length];
+        Runnable[] jobs = new Runnable[batch.length];
+        for (int k = 0; k < batch.length; k++) {
+            final int index = k;
+            jobs[k] = new Runnable() {
+                public void run() {
+                    try {
+                        batch[index].compute();
+                    } catch (RuntimeException e) {
+                        failed[index] = true;
+                    } catch (OutOfMemoryError e) {
+                        failed[index] = true;
+                    }
+                }
+            };
+        }
+
+        Mandel_Java.runAll(jobs);
+
+        for (int k = 0; k < batch.length; k++) {
+            if (!failed[k]) onCompleted(batch[k]);
+        }
+        for (int k = 0; k < batch.length; k++) {
+            if (failed[k]) computeTile(batch[k]);
+        }
+    }
+
+    private void onCompleted(Tile t) {
+        if (mTileCompleted != null) {
+            mTileCompleted.onTileCompleted(t);
+        }
+        charge(t);
+    }
+
+    /** Puts the tile last in mMemoryList, charged for the memory it holds now. */
+    private void charge(Tile t) {
+        if (t.isInMemory()) {
+            mMemoryList.remove(t);
+            releaseMemory(t);
+        }
+        // A shared bitmap is charged in UniformBitmaps, the tile is only
+        // charged for its iteration state if any. It still goes on the list
+        // so that reclaimTiles() can free it: the shared bitmap stays as long
+        // as a tile uses it.
+        int size = t.getMemorySize();
+        t.setMemoryCharge(size);
+        mMemoryUsed += size;
+        mMemoryList.add(t);
+        t.setInMemory(true);
+    }
+
+    /** Uncharges a tile removed from mMemoryList. */
+    private void releaseMemory(Tile t) {
+        mMemoryUsed -= t.getMemoryCharge();
+        t.setMemoryCharge(0);
+        t.setInMemory(false);
+    }
+
     /**
      * Frees all tiles from a different level,
      * at most half of the tiles,
@@ -189,7 +502,7 @@ public class TileThread extends BaseThread {
         // always free the first tile
         Tile t = mMemoryList.poll();
         if (t != null) {
-            t.setInMemory(false);
+            releaseMemory(t);
             t.reclaimBitmap();
         }
 
@@ -202,7 +515,7 @@ public class TileThread extends BaseThread {
             t = it.next();
             if (level < 0 || t.getZoomLevel() != level) {
                 Bitmap b = t.reclaimBitmap();
-                t.setInMemory(false);
+                releaseMemory(t);
                 it.remove();
                 if (b != null) r++;
             }
@@ -212,7 +525,7 @@ public class TileThread extends BaseThread {
         if (r == 1 && !mMemoryList.isEmpty()) {
             t = mMemoryList.poll();
             if (t != null) {
-                t.setInMemory(false);
+                releaseMemory(t);
                 t.reclaimBitmap();
             }
             r++;
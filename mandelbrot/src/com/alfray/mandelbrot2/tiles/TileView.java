@@ -114,12 +114,15 @@ public class TileView extends View {
             return;
         }
 
+        // Completed tiles are invalidated together once per frame (see
+        // TileContext.invalidateTile), only the tiles in that clip get drawn.
         Rect bounds = mTempBounds ;
         boolean useBounds = canvas.getClipBounds(bounds);
 
         if (DEBUG) {
             logd("Bounds %s", (useBounds ? bounds.toString() : "no"));
         }
+        if (!useBounds) return; // empty clip, nothing to draw
 
         final int ofx = mTileContext.getOffsetX();
         final int ofy = mTileContext.getOffsetY();
@@ -132,7 +135,7 @@ public class TileView extends View {
             int y = t.getVirtualY() + ofy;
             rect.offsetTo(x, y);
 
-            if (useBounds && !Rect.intersects(bounds, rect)) continue;
+            if (!Rect.intersects(bounds, rect)) continue;
 
             Bitmap bmp = t.getBitmap();
 
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2008 (c) ralfoide gmail com, 2008
+ * Project: Mandelbrot
+ * License: GPL version 3 or any later version
+ */
+
+package com.alfray.mandelbrot2.tiles;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import android.graphics.Bitmap;
+
+/**
+ * Shared bitmaps of the tiles that are a single color.
+ * <p/>
+ * Deep in the set, or far out of it at low max_iter, most tiles are uniform.
+ * Instead of a SIZE*SIZE bitmap each (32 KB in RGB_565) they all use the one
+ * immutable bitmap of their color from here, which is charged once against
+ * the TileThread memory budget.
+ * <p/>
+ * A bitmap is kept as long as a tile uses it, so that size() is the memory
+ * they really hold: tiles must {@link #release(Bitmap)} the bitmap when they
+ * drop it. At most MAX_UNUSED bitmaps no tile uses are kept for later tiles,
+ * the least recently used is dropped first. Accessed from any thread
+ * computing tiles.
+ */
+public class UniformBitmaps {
+
+    private static final int MAX_UNUSED = 32;
+
+    private static class Entry {
+        final Bitmap mBitmap;
+        int mRefs;
+
+        public Entry(Bitmap bitmap) {
+            mBitmap = bitmap;
+        }
+    }
+
+    private static final LinkedHashMap<Integer, Entry> sBitmaps =
+        new LinkedHashMap<Integer, Entry>(MAX_UNUSED, 0.75f, true /*accessOrder*/);
+
+    /** Number of entries of sBitmaps with no reference. */
+    private static int sUnused;
+
+    private UniformBitmaps() {
+    }
+
+    /**
+     * Returns the shared bitmap of the color of colors[0] and counts one more
+     * tile using it. colors must be SIZE*SIZE pixels of that same color, it's
+     * used to create the bitmap.
+     */
+    public static synchronized Bitmap get(int[] colors) {
+        Integer color = Integer.valueOf(colors[0]);
+        Entry e = sBitmaps.get(color);
+        if (e == null) {
+            // created from an array, the bitmap is immutable
+            e = new Entry(Bitmap.createBitmap(colors, Tile.SIZE, Tile.SIZE, Tile.BMP_CONFIG));
+            sBitmaps.put(color, e);
+        } else if (e.mRefs == 0) {
+            sUnused--;
+        }
+        e.mRefs++;
+        return e.mBitmap;
+    }
+
+    /** Counts one less tile using that bitmap, returned by {@link #get(int[])}. */
+    public static synchronized void release(Bitmap bmp) {
+        // there are few entries, not worth a reverse map
+        for (Entry e : sBitmaps.values()) {
+            if (e.mBitmap == bmp) {
+                if (e.mRefs > 0 && --e.mRefs == 0) {
+                    sUnused++;
+                    trimUnused();
+                }
+                return;
+            }
+        }
+    }
+
+    /** Drops the least recently used bitmaps no tile uses beyond MAX_UNUSED. */
+    private static void trimUnused() {
+        for (Iterator<Entry> it = sBitmaps.values().iterator();
+                it.hasNext() && sUnused > MAX_UNUSED; ) {
+            if (it.next().mRefs == 0) {
+                it.remove();
+                sUnused--;
+            }
+        }
+    }
+
+    /** Number of shared bitmaps currently kept, used or not. */
+    public static synchronized int size() {
+        return sBitmaps.size();
+    }
+
+    /** True if all the n first colors are the same. */
+    public static boolean isUniform(int[] colors, int n) {
+        final int c = colors[0];
+        for (int k = 1; k < n; k++) {
+            if (colors[k] != c) return false;
+        }
+        return true;
+    }
+}